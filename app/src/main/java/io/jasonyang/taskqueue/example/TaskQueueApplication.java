@@ -1,8 +1,6 @@
 package io.jasonyang.taskqueue.example;
 
 import android.app.Application;
-import android.os.Handler;
-import android.os.Looper;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -43,7 +41,7 @@ public class TaskQueueApplication extends Application {
 
     public TaskPool getTaskPool() {
         if (taskPool == null) {
-            taskPool = new TaskPool(new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+            taskPool = new TaskPool(new ExecutorDelivery());
             taskPool.start();
 
             taskPool.addTaskListener(new TaskPool.TaskPoolListener<Object, Object>() {
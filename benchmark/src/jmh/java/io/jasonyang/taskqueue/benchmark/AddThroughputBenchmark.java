@@ -0,0 +1,68 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+
+/**
+ * Sustained {@link TaskPool#add} throughput under 1, 4 and 16 producers, with one dispatcher and
+ * with one dispatcher per core over a sharded pending queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AddThroughputBenchmark {
+
+    @Param({"false", "true"})
+    public boolean dispatcherPerCore;
+
+    @Param({"NESTED", "INLINE"})
+    public TaskPool.ExecutionMode mode;
+
+    private TaskPool mPool;
+
+    @Setup
+    public void setUp() {
+        int dispatchers = dispatcherPerCore ? Runtime.getRuntime().availableProcessors() : 1;
+        mPool = Pools.bounded()
+                .setExecutionMode(mode)
+                .setDispatcherCount(dispatchers, 0)
+                .build();
+        mPool.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object producers1() {
+        return mPool.add(new StubTask());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object producers4() {
+        return mPool.add(new StubTask());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object producers16() {
+        return mPool.add(new StubTask());
+    }
+}
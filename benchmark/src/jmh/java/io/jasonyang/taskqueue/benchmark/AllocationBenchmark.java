@@ -0,0 +1,50 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+
+/**
+ * Garbage per completed task. Read {@code gc.alloc.rate.norm} of the gc profiler, which counts
+ * bytes allocated by all threads, including workers and delivery, per added task. The task itself
+ * is part of it. {@code AllocationBudgetTest} in core checks a budget for the same path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class AllocationBenchmark {
+
+    @Param({"NESTED", "INLINE"})
+    public TaskPool.ExecutionMode mode;
+
+    private TaskPool mPool;
+
+    @Setup
+    public void setUp() {
+        mPool = Pools.bounded().setExecutionMode(mode).build();
+        mPool.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.stop();
+    }
+
+    @Benchmark
+    public Object addToDelivery() {
+        return mPool.add(new StubTask());
+    }
+}
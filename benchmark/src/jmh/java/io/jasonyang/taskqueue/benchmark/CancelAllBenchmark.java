@@ -0,0 +1,77 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+import io.jasonyang.taskqueue.TestSupport;
+
+/**
+ * Cost of {@link TaskPool#cancelAll()} with 100k tasks pending behind a task that blocks the only
+ * worker, either all in the pending queue or mostly parked behind 100 exclusive keys. Canceled
+ * tasks are unlinked and finished right away, so the pool is empty when it returns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+public class CancelAllBenchmark {
+
+    private static final int PENDING_TASKS = 100000;
+
+    @Param({"0", "100"})
+    public int exclusiveKeys;
+
+    private TaskPool mPool;
+    private CountDownLatch mBlocker;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        mPool = TestSupport.directPool()
+                .setMaxConcurrency(1)
+                .build();
+        mPool.start();
+
+        mBlocker = new CountDownLatch(1);
+        mPool.add(new StubTask() {
+            @Override
+            protected Object onExecute() throws Exception {
+                mBlocker.await();
+                return null;
+            }
+        });
+        for (int i = 0; i < PENDING_TASKS; i++) {
+            String key = exclusiveKeys > 0 ? "key" + i % exclusiveKeys : null;
+            mPool.add(new StubTask(key, null));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        if (mPool.size() > 1) {
+            throw new IllegalStateException(mPool.size() + " tasks left after cancelAll()");
+        }
+        mBlocker.countDown();
+        mPool.stop();
+    }
+
+    @Benchmark
+    public void cancelAll() {
+        mPool.cancelAll();
+    }
+}
@@ -0,0 +1,79 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+import io.jasonyang.taskqueue.TestSupport;
+
+/**
+ * Cost of {@link TaskPool#cancelByTag(Object)} for one tag out of 100 while 10k or 100k tasks are
+ * pending behind a task that blocks the only worker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+public class CancelByTagBenchmark {
+
+    private static final int TAGS = 100;
+
+    @Param({"10000", "100000"})
+    public int liveTasks;
+
+    private TaskPool mPool;
+    private CountDownLatch mBlocker;
+    private Object[] mTags;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        mPool = TestSupport.directPool()
+                .setMaxConcurrency(1)
+                .build();
+        mPool.start();
+
+        mBlocker = new CountDownLatch(1);
+        mPool.add(new StubTask() {
+            @Override
+            protected Object onExecute() throws Exception {
+                mBlocker.await();
+                return null;
+            }
+        });
+        mTags = new Object[TAGS];
+        for (int i = 0; i < TAGS; i++) {
+            mTags[i] = new Object();
+        }
+        for (int i = 0; i < liveTasks; i++) {
+            StubTask task = new StubTask();
+            task.setTag(mTags[i % TAGS]);
+            mPool.add(task);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        mBlocker.countDown();
+        mPool.stop();
+    }
+
+    @Benchmark
+    public void cancelByTag() {
+        mPool.cancelByTag(mTags[0]);
+    }
+}
@@ -0,0 +1,58 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.BatchingDelivery;
+import io.jasonyang.taskqueue.ExecutorDelivery;
+import io.jasonyang.taskqueue.Result;
+import io.jasonyang.taskqueue.ResultDelivery;
+import io.jasonyang.taskqueue.StubTask;
+
+/**
+ * Overhead of posting results from 4 workers to a single consumer thread, which stands in for the
+ * main looper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class DeliveryBenchmark {
+
+    @Param({"executor", "batching"})
+    public String delivery;
+
+    private ExecutorService mLooper;
+    private ResultDelivery mDelivery;
+    private final Result<Object> mResult = Result.success(new Object());
+
+    @Setup
+    public void setUp() {
+        mLooper = Executors.newSingleThreadExecutor();
+        mDelivery = "batching".equals(delivery)
+                ? new BatchingDelivery(mLooper) : new ExecutorDelivery(mLooper);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mLooper.shutdownNow();
+        mLooper.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void postResult() {
+        mDelivery.postResult(new StubTask(), mResult);
+    }
+}
@@ -0,0 +1,61 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+
+/**
+ * Throughput of keyed tasks, with few keys (long per-key queues) and many keys (mostly uncontended
+ * keys).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ExclusiveKeyBenchmark {
+
+    @Param({"4", "4096"})
+    public int keys;
+
+    private TaskPool mPool;
+    private String[] mKeys;
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        final Random mRandom = new Random();
+    }
+
+    @Setup
+    public void setUp() {
+        mKeys = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            mKeys[i] = "key-" + i;
+        }
+        mPool = Pools.bounded().build();
+        mPool.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.stop();
+    }
+
+    @Benchmark
+    public Object addKeyed(Producer producer) {
+        return mPool.add(new StubTask(mKeys[producer.mRandom.nextInt(keys)], null));
+    }
+}
@@ -0,0 +1,50 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+
+/**
+ * Time from {@link TaskPool#add} to {@code deliverResult()} of a single task. The sample mode
+ * reports the latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LatencyBenchmark {
+
+    @Param({"NESTED", "INLINE"})
+    public TaskPool.ExecutionMode mode;
+
+    private TaskPool mPool;
+
+    @Setup
+    public void setUp() {
+        mPool = Pools.bounded().setExecutionMode(mode).build();
+        mPool.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.stop();
+    }
+
+    @Benchmark
+    public void addToDelivery() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        mPool.add(new StubTask(null, delivered));
+        delivered.await();
+    }
+}
@@ -0,0 +1,48 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import io.jasonyang.taskqueue.StubTask;
+import io.jasonyang.taskqueue.TaskPool;
+
+/**
+ * Sustained throughput with metrics disabled and enabled; the difference is the cost of recording.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class MetricsOverheadBenchmark {
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private TaskPool mPool;
+
+    @Setup
+    public void setUp() {
+        mPool = Pools.bounded().setMetricsEnabled(metrics).build();
+        mPool.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.stop();
+    }
+
+    @Benchmark
+    public Object add() {
+        return mPool.add(new StubTask());
+    }
+}
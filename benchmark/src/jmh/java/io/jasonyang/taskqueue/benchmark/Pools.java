@@ -0,0 +1,23 @@
+package io.jasonyang.taskqueue.benchmark;
+
+import io.jasonyang.taskqueue.TaskPool;
+import io.jasonyang.taskqueue.TestSupport;
+
+/**
+ * Pool setups shared by the benchmarks.
+ */
+final class Pools {
+
+    private Pools() {
+    }
+
+    /**
+     * A pool bounded on both ends, so producers measure the sustained throughput of the pool
+     * rather than how fast an unbounded queue grows.
+     */
+    static TaskPool.Builder bounded() {
+        return TestSupport.directPool()
+                .setMaxConcurrency(Runtime.getRuntime().availableProcessors())
+                .setPendingCapacity(10000, TaskPool.OverflowPolicy.BLOCK);
+    }
+}
@@ -0,0 +1,189 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Raises the effective priority of a task by one level for every aging interval it spends pending,
+ * up to a max boost and never past the top priority, so low priority tasks can't starve under a
+ * steady load of high priority ones.
+ * <p>
+ * Tasks are kept in one FIFO {@link TaskList} per priority. Within a lane, older tasks always have
+ * the higher effective priority, so only the heads of the lanes have to be compared on take;
+ * nothing is ever re-sorted as time passes. Ties go to the task that has been waiting longer.
+ */
+final class AgingPendingQueue implements PendingQueue {
+
+    private final long mAgingIntervalNanos;
+    private final int mMaxBoost;
+    private final TaskList[] mLanes = new TaskList[Task.Priority.values().length];
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private int mSize;
+
+    AgingPendingQueue(long agingIntervalNanos, int maxBoost) {
+        mAgingIntervalNanos = agingIntervalNanos;
+        mMaxBoost = maxBoost;
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new TaskList();
+        }
+    }
+
+    @Override
+    public void add(Task<?, ?> task) {
+        task.setEnqueueTime(System.nanoTime());
+        mLock.lock();
+        try {
+            mLanes[task.getPriority().ordinal()].addLast(task);
+            mSize++;
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                mNotEmpty.await();
+            }
+            return pollLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> poll() {
+        mLock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> peek() {
+        mLock.lock();
+        try {
+            int lane = nextLane(System.nanoTime());
+            return lane < 0 ? null : mLanes[lane].peekFirst();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> pollLowest() {
+        mLock.lock();
+        try {
+            long now = System.nanoTime();
+            int lowest = -1;
+            int lowestPriority = Integer.MAX_VALUE;
+            for (int i = 0; i < mLanes.length; i++) {
+                Task<?, ?> task = mLanes[i].peekLast();
+                if (task == null) {
+                    continue;
+                }
+                int priority = effectivePriority(task, now);
+                if (priority < lowestPriority || priority == lowestPriority
+                        && task.getEnqueueTime() - mLanes[lowest].peekLast().getEnqueueTime() > 0) {
+                    lowest = i;
+                    lowestPriority = priority;
+                }
+            }
+            if (lowest < 0) {
+                return null;
+            }
+            mSize--;
+            return mLanes[lowest].pollLast();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Task<?, ?> task) {
+        mLock.lock();
+        try {
+            return task.mList == mLanes[task.getPriority().ordinal()];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Task<?, ?> task) {
+        mLock.lock();
+        try {
+            if (!mLanes[task.getPriority().ordinal()].remove(task)) {
+                return false;
+            }
+            mSize--;
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        mLock.lock();
+        try {
+            for (TaskList lane : mLanes) {
+                lane.clear();
+            }
+            mSize = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Task<?, ?> pollLocked() {
+        int lane = nextLane(System.nanoTime());
+        if (lane < 0) {
+            return null;
+        }
+        mSize--;
+        return mLanes[lane].pollFirst();
+    }
+
+    private int nextLane(long now) {
+        int best = -1;
+        int bestPriority = -1;
+        // From the highest lane down, so equal effective priorities keep the higher base priority
+        // unless the lower one has been waiting longer.
+        for (int i = mLanes.length - 1; i >= 0; i--) {
+            Task<?, ?> task = mLanes[i].peekFirst();
+            if (task == null) {
+                continue;
+            }
+            int priority = effectivePriority(task, now);
+            if (priority > bestPriority || priority == bestPriority
+                    && task.getEnqueueTime() - mLanes[best].peekFirst().getEnqueueTime() < 0) {
+                best = i;
+                bestPriority = priority;
+            }
+        }
+        return best;
+    }
+
+    private int effectivePriority(Task<?, ?> task, long now) {
+        long boost = Math.min((now - task.getEnqueueTime()) / mAgingIntervalNanos, mMaxBoost);
+        // Never past the top priority, so tasks that aged all the way up run in arrival order.
+        return (int) Math.min(task.getPriority().ordinal() + boost, mLanes.length - 1);
+    }
+}
@@ -0,0 +1,16 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * A {@link RetryPolicy} which also decides how long to wait before the next attempt.
+ * <p>
+ * The task pool releases the worker thread while a task waits for its next attempt, and puts the
+ * task back into the pending queue once the delay has passed.
+ */
+public interface BackoffRetryPolicy extends RetryPolicy {
+
+    /**
+     * Return the delay in milliseconds before the next attempt, 0 to retry right away. Throw an
+     * error if it can't retry.
+     */
+    public long nextBackoff(Throwable error) throws Throwable;
+}
@@ -0,0 +1,81 @@
+package io.jasonyang.taskqueue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A task whose work is cheaper done for many inputs at once, like database writes or uploads.
+ * <p>
+ * The pool collects added tasks with the same batch key until {@link #getMaxBatchSize()} of them
+ * are waiting or the first one has waited {@link #getMaxLingerMillis()}, then runs
+ * {@link #onExecuteBatch(List)} once for all of them on a single worker. Each task gets its own
+ * result or error through {@link #deliverResult(Object)} or {@link #deliverError(Throwable)}.
+ * <p>
+ * The batch runs at the highest priority of its tasks, with the timeout of its first task and a
+ * retry policy made by {@link #createBatchRetryPolicy()} of its first task. Batched tasks don't use
+ * exclusive keys, batches with the same key may run in parallel.
+ * <p>
+ * A batch is one call on one worker, so it takes a single token of each rate limit and a single
+ * slot of the concurrency limit of its priority. Deadlines and cache keys still apply per task: a
+ * task past its deadline when an attempt starts fails with a {@link DeadlineExceededException} and
+ * the batch runs without its input, and each result is cached under the key of its own task.
+ */
+public abstract class BatchTask<I, O> extends Task<I, O> {
+
+    public BatchTask(Result.ErrorListener listener) {
+        super(listener);
+    }
+
+    /**
+     * Tasks with the same batch key and class are executed together.
+     */
+    public abstract String getBatchKey();
+
+    public int getMaxBatchSize() {
+        return 32;
+    }
+
+    public long getMaxLingerMillis() {
+        return 10;
+    }
+
+    /**
+     * Returns a new retry policy for a batch this task is the first of, called once per batch. The
+     * policy of the task itself only applies when it runs alone, since a policy counts attempts and
+     * can't be shared. By default the batch isn't retried.
+     */
+    protected RetryPolicy createBatchRetryPolicy() {
+        return new DefaultRetryPolicy();
+    }
+
+    /**
+     * Returns one result for every input, in the same order. An exception fails every task of the
+     * batch and is subject to the retry policy, a {@link Result#error(Throwable)} fails only its
+     * own task.
+     */
+    protected abstract List<Result<O>> onExecuteBatch(List<I> inputs) throws Exception;
+
+    @Override
+    public final String getExclusiveKey() {
+        return null;
+    }
+
+    /**
+     * Runs a batch of this task alone.
+     */
+    @Override
+    protected final O onExecute() throws Exception {
+        Result<O> result = onExecuteBatch(Collections.singletonList(getData())).get(0);
+        if (result.isSuccess()) {
+            return result.result;
+        }
+        if (result.error instanceof Exception) {
+            throw (Exception) result.error;
+        }
+        if (result.error instanceof Error) {
+            throw (Error) result.error;
+        }
+        throw new ExecutionException(result.error);
+    }
+}
@@ -0,0 +1,272 @@
+package io.jasonyang.taskqueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the {@link BatchTask}s added to a pool by batch key, and hands every full or lingered
+ * batch to the pool as a single carrier task.
+ */
+final class Batcher {
+
+    private final TaskPool mPool;
+    private final ConcurrentHashMap<Object, Batch> mBatches
+            = new ConcurrentHashMap<Object, Batch>();
+
+    Batcher(TaskPool pool) {
+        mPool = pool;
+    }
+
+    void add(BatchTask<?, ?> task) {
+        List<Object> key = new ArrayList<Object>(2);
+        key.add(task.getClass());
+        key.add(task.getBatchKey());
+        for (; ; ) {
+            Batch batch = mBatches.get(key);
+            if (batch == null) {
+                Batch newBatch = new Batch(key, Math.max(task.getMaxBatchSize(), 1));
+                batch = mBatches.putIfAbsent(key, newBatch);
+                if (batch == null) {
+                    batch = newBatch;
+                }
+            }
+            boolean full;
+            synchronized (batch) {
+                if (batch.mSealed) {
+                    // Sealed while we were looking it up, start a new one.
+                    mBatches.remove(key, batch);
+                    continue;
+                }
+                batch.mTasks.add(task);
+                full = batch.mTasks.size() >= batch.mMaxSize;
+                if (full) {
+                    batch.mSealed = true;
+                } else if (batch.mTasks.size() == 1) {
+                    batch.mLinger = TaskTimer.shared().schedule(batch,
+                            task.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) {
+                seal(batch);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Drops the batches which are still lingering, so their timers can't hand them to the pool
+     * once it's started again.
+     */
+    void clear() {
+        for (Batch batch : mBatches.values()) {
+            TaskTimer.Timeout linger;
+            synchronized (batch) {
+                batch.mSealed = true;
+                linger = batch.mLinger;
+            }
+            if (linger != null) {
+                linger.cancel();
+            }
+        }
+        mBatches.clear();
+    }
+
+    private void seal(Batch batch) {
+        mBatches.remove(batch.mKey, batch);
+        if (batch.mLinger != null) {
+            batch.mLinger.cancel();
+        }
+        List<BatchTask<?, ?>> tasks = new ArrayList<BatchTask<?, ?>>(batch.mTasks.size());
+        for (BatchTask<?, ?> task : batch.mTasks) {
+            task.releasePendingSlot();
+            if (task.isCanceled()) {
+                task.finish();
+            } else {
+                tasks.add(task);
+            }
+        }
+        if (!tasks.isEmpty()) {
+            mPool.dispatchBatch(new Carrier(tasks));
+        }
+    }
+
+    private final class Batch implements Runnable {
+
+        private final Object mKey;
+        private final int mMaxSize;
+        private final List<BatchTask<?, ?>> mTasks = new ArrayList<BatchTask<?, ?>>();
+        private TaskTimer.Timeout mLinger;
+        private boolean mSealed;
+
+        Batch(Object key, int maxSize) {
+            mKey = key;
+            mMaxSize = maxSize;
+        }
+
+        /**
+         * Seals the batch once it lingered long enough.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mSealed) {
+                    return;
+                }
+                mSealed = true;
+            }
+            seal(this);
+        }
+    }
+
+    /**
+     * Runs a batch through the queue and a worker like any task, then fans the results out to the
+     * tasks of the batch on delivery. It's never in the pool's set of current tasks.
+     * <p>
+     * The deadline of each task is checked on every attempt, and the result cache takes the result
+     * of each task under its own key. The rate limits and the concurrency limit of its priority
+     * count the batch as one task, since it's one call on one worker.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static final class Carrier extends Task<List<Object>, List<Result<Object>>> {
+
+        private final List<BatchTask<?, ?>> mTasks;
+        // Tasks found past their deadline, so each is counted as expired only once.
+        private final boolean[] mExpired;
+        private List<Object> mInputs;
+        // Set by the last attempt which returned, read by the metrics on completion.
+        private volatile List<Result<Object>> mResults;
+
+        Carrier(List<BatchTask<?, ?>> tasks) {
+            super(null);
+            mTasks = tasks;
+            mExpired = new boolean[tasks.size()];
+            List<Object> inputs = new ArrayList<Object>(tasks.size());
+            BatchTask<?, ?> first = tasks.get(0);
+            Priority priority = first.getPriority();
+            for (BatchTask<?, ?> task : tasks) {
+                inputs.add(task.getData());
+                if (task.getPriority().compareTo(priority) > 0) {
+                    priority = task.getPriority();
+                }
+            }
+            setData(inputs);
+            setPriority(priority);
+            setRetryPolicy(first.createBatchRetryPolicy());
+            if (first.getTimeout() > 0) {
+                setTimeout(first.getTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        List<BatchTask<?, ?>> getTasks() {
+            return mTasks;
+        }
+
+        /**
+         * Whether the task at the index got a successful result from the last attempt.
+         */
+        boolean isSuccess(int index) {
+            List<Result<Object>> results = mResults;
+            return results != null && results.get(index).isSuccess();
+        }
+
+        @Override
+        public List<Object> getData() {
+            return mInputs;
+        }
+
+        /**
+         * Takes one input per task of the batch, in the same order.
+         */
+        @Override
+        public void setData(List<Object> data) {
+            if (data == null || data.size() != mTasks.size()) {
+                throw new IllegalArgumentException("One input per task of the batch is required");
+            }
+            mInputs = data;
+        }
+
+        @Override
+        public String getExclusiveKey() {
+            return null;
+        }
+
+        /**
+         * Runs the batch without the tasks which are past their deadline, those fail on their own.
+         */
+        @Override
+        protected List<Result<Object>> onExecute() throws Exception {
+            List<Object> inputs = getData();
+            List<Object> live = expire(inputs, System.nanoTime());
+            List<Result<Object>> results = live.isEmpty()
+                    ? Collections.<Result<Object>>emptyList()
+                    : ((BatchTask) mTasks.get(0)).onExecuteBatch(live);
+            if (results == null || results.size() != live.size()) {
+                throw new IllegalStateException("onExecuteBatch returned "
+                        + (results == null ? "null" : results.size() + " results")
+                        + " for " + live.size() + " inputs");
+            }
+            if (live.size() < inputs.size()) {
+                List<Result<Object>> all = new ArrayList<Result<Object>>(inputs.size());
+                for (int i = 0, j = 0; i < mTasks.size(); i++) {
+                    all.add(mExpired[i] ? Result.<Object>error(new DeadlineExceededException())
+                            : results.get(j++));
+                }
+                results = all;
+            }
+            mResults = results;
+            return results;
+        }
+
+        /**
+         * Marks the tasks past their deadline and returns the inputs of the others.
+         */
+        private List<Object> expire(List<Object> inputs, long now) {
+            List<Object> live = inputs;
+            for (int i = 0; i < mTasks.size(); i++) {
+                if (!mExpired[i] && mTasks.get(i).isPastDeadline(now)) {
+                    mExpired[i] = true;
+                    TaskPoolMetrics metrics = poolMetrics();
+                    if (metrics != null) {
+                        metrics.onExpired();
+                    }
+                }
+                if (mExpired[i] && live == inputs) {
+                    live = new ArrayList<Object>(inputs.subList(0, i));
+                } else if (!mExpired[i] && live != inputs) {
+                    live.add(inputs.get(i));
+                }
+            }
+            return live;
+        }
+
+        @Override
+        protected void deliverResult(List<Result<Object>> results) {
+            for (int i = 0; i < mTasks.size(); i++) {
+                ExecutorDelivery.ResponseDeliveryRunnable.deliver(mTasks.get(i), results.get(i));
+            }
+        }
+
+        @Override
+        public void deliverError(Throwable error) {
+            Result<Object> result = Result.error(error);
+            for (BatchTask<?, ?> task : mTasks) {
+                ExecutorDelivery.ResponseDeliveryRunnable.deliver(task, result);
+            }
+        }
+
+        @Override
+        void finish() {
+            // The batch tasks finish as their results are delivered. Only ones which won't get a
+            // result, because the batch was canceled or dropped, are left to finish here.
+            for (BatchTask<?, ?> task : mTasks) {
+                if (!task.isDone()) {
+                    task.finish();
+                }
+            }
+            super.finish();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ResultDelivery} which coalesces results into batches instead of posting one message per
+ * task.
+ * <p>
+ * Completed results are collected in a lock-free queue, and a single runnable is posted to drain
+ * them. A drain stops after the max batch size or the max drain time, whatever comes first, and
+ * posts itself again for the rest, so a burst of results doesn't hold the target thread for long.
+ * Results are delivered in completion order, so tasks with the same exclusive key are delivered
+ * in the order they ran.
+ */
+public class BatchingDelivery implements ResultDelivery {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_MAX_DRAIN_TIME_MS = 4;
+
+    private final Executor mResponsePoster;
+    private final int mMaxBatchSize;
+    private final long mMaxDrainTimeNanos;
+    private final ConcurrentLinkedQueue<Runnable> mPending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final ObjectPool<ExecutorDelivery.ResponseDeliveryRunnable> mDeliveryPool
+            = ExecutorDelivery.ResponseDeliveryRunnable.newPool();
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Deliver on the {@link Platform#defaultCallbackExecutor()}, the main thread on Android.
+     */
+    public BatchingDelivery() {
+        this(Platform.get().defaultCallbackExecutor());
+    }
+
+    public BatchingDelivery(Executor executor) {
+        this(executor, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DRAIN_TIME_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public BatchingDelivery(Executor executor, int maxBatchSize, long maxDrainTime,
+                            TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        if (maxDrainTime <= 0) {
+            throw new IllegalArgumentException("maxDrainTime <= 0");
+        }
+        mResponsePoster = executor;
+        mMaxBatchSize = maxBatchSize;
+        mMaxDrainTimeNanos = unit.toNanos(maxDrainTime);
+    }
+
+    @Override
+    public void postResult(Task<?, ?> task, Result<?> result) {
+        postResult(task, result, null);
+    }
+
+    @Override
+    public void postResult(Task<?, ?> task, Result<?> result, Runnable runnable) {
+        enqueue(ExecutorDelivery.ResponseDeliveryRunnable.obtain(mDeliveryPool, task, result,
+                runnable));
+    }
+
+    @Override
+    public void postError(Task<?, ?> task, Throwable error) {
+        Result<?> result = Result.error(error);
+        enqueue(ExecutorDelivery.ResponseDeliveryRunnable.obtain(mDeliveryPool, task, result,
+                null));
+    }
+
+    private void enqueue(Runnable delivery) {
+        mPending.offer(delivery);
+        schedule();
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mResponsePoster.execute(mDrainRunnable);
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < mMaxBatchSize; i++) {
+                Runnable delivery = mPending.poll();
+                if (delivery == null) {
+                    break;
+                }
+                delivery.run();
+                if (System.nanoTime() - start >= mMaxDrainTimeNanos) {
+                    break;
+                }
+            }
+        } finally {
+            mScheduled.set(false);
+            // Results that came in during the drain, or didn't fit in this batch.
+            if (!mPending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A task for clients which are asynchronous already. {@link #onExecuteAsync(Callback)} starts the
+ * work and returns, and the client completes the callback later from any thread, so no worker
+ * waits while the work is in flight.
+ * <p>
+ * Timeouts, retries, cancel and delivery work as for other tasks. When an attempt times out or
+ * the task is canceled, {@link #onCancelAsync()} is called so the client can stop the work, and
+ * later completions of that attempt are ignored.
+ */
+public abstract class CallbackTask<I, O> extends Task<I, O> {
+
+    private volatile Attempt mAttempt;
+
+    public CallbackTask(Result.ErrorListener listener) {
+        super(listener);
+    }
+
+    /**
+     * Starts the work and completes the callback once, now or later. Throwing fails the attempt.
+     */
+    protected abstract void onExecuteAsync(Callback<O> callback) throws Exception;
+
+    /**
+     * Called when the current attempt timed out or the task was canceled, to abort the work.
+     */
+    protected void onCancelAsync() {
+    }
+
+    /**
+     * Runs an attempt and waits for it, for use outside of a pool.
+     */
+    @Override
+    protected final O onExecute() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        final Throwable[] error = new Throwable[1];
+        onExecuteAsync(new Callback<O>() {
+            @Override
+            public void onSuccess(O value) {
+                result[0] = value;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error[0] = e;
+                done.countDown();
+            }
+        });
+        done.await();
+        if (error[0] instanceof Exception) {
+            throw (Exception) error[0];
+        } else if (error[0] != null) {
+            throw new ExecutionException(error[0]);
+        }
+        @SuppressWarnings("unchecked")
+        O value = (O) result[0];
+        return value;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        Attempt attempt = mAttempt;
+        if (attempt != null) {
+            attempt.cancel();
+        }
+    }
+
+    /**
+     * Starts an attempt on the calling worker, which is free again when this returns.
+     */
+    final void start(ResultDelivery delivery, TaskPoolMetrics metrics, ResultCache resultCache,
+                     long startTime) {
+        markExecuting();
+        Attempt attempt = new Attempt(delivery, metrics, resultCache, startTime);
+        mAttempt = attempt;
+        if (getTimeout() > 0) {
+            attempt.mTimeout = TaskTimer.shared().schedule(attempt, getTimeout(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (isCanceled()) {
+            attempt.cancel();
+            return;
+        }
+        try {
+            onExecuteAsync(attempt);
+        } catch (Throwable e) {
+            attempt.onError(e);
+        }
+    }
+
+    public interface Callback<O> {
+
+        void onSuccess(O result);
+
+        void onError(Throwable error);
+    }
+
+    /**
+     * One attempt of the task, whichever of completion, timeout and cancel comes first wins.
+     */
+    private final class Attempt implements Callback<O>, Runnable {
+
+        private final AtomicBoolean mDone = new AtomicBoolean();
+        private final ResultDelivery mDelivery;
+        private final TaskPoolMetrics mMetrics;
+        private final ResultCache mResultCache;
+        private final long mStartTime;
+        private volatile TaskTimer.Timeout mTimeout;
+
+        Attempt(ResultDelivery delivery, TaskPoolMetrics metrics, ResultCache resultCache,
+                long startTime) {
+            mDelivery = delivery;
+            mMetrics = metrics;
+            mResultCache = resultCache;
+            mStartTime = startTime;
+        }
+
+        @Override
+        public void onSuccess(O result) {
+            if (!complete()) {
+                return;
+            }
+            if (mMetrics != null) {
+                mMetrics.onComplete(CallbackTask.this, mStartTime, System.nanoTime(), true);
+            }
+            if (mResultCache != null) {
+                mResultCache.put(CallbackTask.this, result);
+            }
+            mDelivery.postResult(CallbackTask.this, Result.success(result));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (complete()) {
+                fail(error, false);
+            }
+        }
+
+        /**
+         * Times the attempt out.
+         */
+        @Override
+        public void run() {
+            if (complete()) {
+                onCancelAsync();
+                fail(new TimeoutException(), true);
+            }
+        }
+
+        void cancel() {
+            if (complete()) {
+                onCancelAsync();
+                // Delivery finishes a canceled task without handing it the error.
+                mDelivery.postError(CallbackTask.this, new CancellationException());
+            }
+        }
+
+        private boolean complete() {
+            if (!mDone.compareAndSet(false, true)) {
+                return false;
+            }
+            TaskTimer.Timeout timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            return true;
+        }
+
+        private void fail(Throwable error, boolean timeout) {
+            if (isCanceled()) {
+                mDelivery.postError(CallbackTask.this, new CancellationException());
+                return;
+            }
+            try {
+                retryAsync(error, timeout);
+            } catch (Throwable e) {
+                if (mMetrics != null) {
+                    mMetrics.onComplete(CallbackTask.this, mStartTime, System.nanoTime(), false);
+                }
+                mDelivery.postError(CallbackTask.this, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.jasonyang.taskqueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Attaches a newly added task to a pending or in-flight task of the same class, with the same
+ * exclusive key and equal data, so the work runs once and every copy gets its result.
+ * <p>
+ * The first copy is the primary and runs as usual. The others are followers: they never reach the
+ * pending queue or an exclusive lane, and are delivered the primary's result or error right after
+ * it. If the primary finishes without a delivery, e.g. because it was canceled, its followers are
+ * dispatched again and the first of them becomes the new primary.
+ */
+final class Coalescer {
+
+    private final ConcurrentHashMap<Key, Group> mGroups = new ConcurrentHashMap<Key, Group>();
+
+    /**
+     * Returns true if the task was attached to a primary as a follower, false if it's a primary
+     * now and has to be dispatched.
+     */
+    boolean attach(Task<?, ?> task) {
+        Object data = task.getData();
+        if (data == null) {
+            return false;
+        }
+        Key key = new Key(task.getClass(), task.getExclusiveKey(), data);
+        for (; ; ) {
+            Group group = mGroups.get(key);
+            if (group == null) {
+                Group newGroup = new Group(key);
+                group = mGroups.putIfAbsent(key, newGroup);
+                if (group == null) {
+                    task.setCoalesceGroup(newGroup);
+                    return false;
+                }
+            }
+            synchronized (group) {
+                if (!group.mClosed) {
+                    group.mFollowers.add(task);
+                    return true;
+                }
+            }
+            // The primary is finishing, don't let it block the key.
+            mGroups.remove(key, group);
+        }
+    }
+
+    /**
+     * Detaches and returns the followers of a primary. Tasks added from now on won't attach to it.
+     */
+    List<Task<?, ?>> detach(Task<?, ?> primary) {
+        Group group = primary.getCoalesceGroup();
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        primary.setCoalesceGroup(null);
+        List<Task<?, ?>> followers;
+        synchronized (group) {
+            group.mClosed = true;
+            followers = group.mFollowers;
+            group.mFollowers = null;
+        }
+        mGroups.remove(group.mKey, group);
+        return followers;
+    }
+
+    void clear() {
+        mGroups.clear();
+    }
+
+    static final class Group {
+
+        private final Key mKey;
+        private List<Task<?, ?>> mFollowers = new ArrayList<Task<?, ?>>(1);
+        private boolean mClosed;
+
+        Group(Key key) {
+            mKey = key;
+        }
+    }
+
+    private static final class Key {
+
+        private final Class<?> mType;
+        private final String mExclusiveKey;
+        private final Object mData;
+
+        Key(Class<?> type, String exclusiveKey, Object data) {
+            mType = type;
+            mExclusiveKey = exclusiveKey;
+            mData = data;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mType == other.mType && mData.equals(other.mData)
+                    && (mExclusiveKey == null ? other.mExclusiveKey == null
+                    : mExclusiveKey.equals(other.mExclusiveKey));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mType.hashCode();
+            hash = 31 * hash + (mExclusiveKey == null ? 0 : mExclusiveKey.hashCode());
+            return 31 * hash + mData.hashCode();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * Delivered to a task whose deadline passed before it started, see
+ * {@link Task#setDeadline(long, java.util.concurrent.TimeUnit)}.
+ */
+public class DeadlineExceededException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Deadline passed before the task started");
+    }
+}
@@ -0,0 +1,185 @@
+package io.jasonyang.taskqueue;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders tasks earliest deadline first. Tasks without a deadline run after all tasks with one, in
+ * {@link Task#compareTo(Task)} order, so they still follow their priority among themselves.
+ * <p>
+ * A task is sorted by the deadline, priority and sequence it has when it's added, so changing
+ * them while it's queued can't break the order of the queue, or keep the task from being found.
+ */
+final class DeadlinePendingQueue implements PendingQueue {
+
+    /**
+     * The order of the queue by the current deadlines and priorities of the tasks.
+     */
+    static final Comparator<Task<?, ?>> ORDER = new Comparator<Task<?, ?>>() {
+        @Override
+        public int compare(Task<?, ?> left, Task<?, ?> right) {
+            return new Key(left, 0).compareTo(new Key(right, 0));
+        }
+    };
+
+    private final TreeMap<Key, Task<?, ?>> mTasks = new TreeMap<Key, Task<?, ?>>();
+    private final Map<Task<?, ?>, Key> mKeys = new IdentityHashMap<Task<?, ?>, Key>();
+    // Breaks ties between tasks with equal keys, like ones added again after a restart.
+    private long mAdded;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    @Override
+    public void add(Task<?, ?> task) {
+        mLock.lock();
+        try {
+            if (!mKeys.containsKey(task)) {
+                Key key = new Key(task, mAdded++);
+                mKeys.put(task, key);
+                mTasks.put(key, task);
+            }
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mTasks.isEmpty()) {
+                mNotEmpty.await();
+            }
+            return unlink(mTasks.pollFirstEntry());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> poll() {
+        mLock.lock();
+        try {
+            return unlink(mTasks.pollFirstEntry());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Task<?, ?> peek() {
+        mLock.lock();
+        try {
+            return mTasks.isEmpty() ? null : mTasks.firstEntry().getValue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the task with the latest deadline, tasks without one counting as the
+     * latest, and of those the one of the lowest priority added last.
+     */
+    @Override
+    public Task<?, ?> pollLowest() {
+        mLock.lock();
+        try {
+            return unlink(mTasks.pollLastEntry());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Task<?, ?> task) {
+        mLock.lock();
+        try {
+            return mKeys.containsKey(task);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Task<?, ?> task) {
+        mLock.lock();
+        try {
+            Key key = mKeys.remove(task);
+            return key != null && mTasks.remove(key) != null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mTasks.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        mLock.lock();
+        try {
+            mTasks.clear();
+            mKeys.clear();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Task<?, ?> unlink(Map.Entry<Key, Task<?, ?>> entry) {
+        if (entry == null) {
+            return null;
+        }
+        mKeys.remove(entry.getValue());
+        return entry.getValue();
+    }
+
+    /**
+     * The sort key of a task, taken when it's added.
+     */
+    private static final class Key implements Comparable<Key> {
+
+        final boolean mHasDeadline;
+        final long mDeadline;
+        final int mPriority;
+        final int mSequence;
+        final long mAdded;
+
+        Key(Task<?, ?> task, long added) {
+            mHasDeadline = task.hasDeadline();
+            mDeadline = task.getDeadline();
+            mPriority = task.getPriority().ordinal();
+            mSequence = task.getSequence();
+            mAdded = added;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (mHasDeadline != other.mHasDeadline) {
+                return mHasDeadline ? -1 : 1;
+            }
+            if (mHasDeadline && mDeadline != other.mDeadline) {
+                return mDeadline - other.mDeadline < 0 ? -1 : 1;
+            }
+            // Like Task.compareTo: higher priorities first, then in sequence.
+            if (mPriority != other.mPriority) {
+                return other.mPriority - mPriority;
+            }
+            if (mSequence != other.mSequence) {
+                return mSequence - other.mSequence;
+            }
+            return mAdded < other.mAdded ? -1 : mAdded == other.mAdded ? 0 : 1;
+        }
+    }
+}
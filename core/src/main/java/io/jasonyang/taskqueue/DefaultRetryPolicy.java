@@ -0,0 +1,97 @@
+package io.jasonyang.taskqueue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by JasonYang on 2015/7/28.
+ * <p>
+ * Retries right away by default. With an initial backoff, waits between attempts using
+ * exponential backoff with decorrelated jitter: every delay is picked at random between the
+ * initial backoff and three times the previous delay, capped by the max backoff. Retries also stop
+ * once the max elapsed time since the first failure has passed.
+ */
+public class DefaultRetryPolicy implements BackoffRetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 0;
+
+    private final int mMaxNumRetries;
+    private final long mInitialBackoffMs;
+    private final long mMaxBackoffMs;
+    private final long mMaxElapsedMs;
+
+    private int mCurrentRetryCount;
+    private long mLastBackoffMs;
+    private long mFirstFailureNanos;
+    private Random mRandom;
+
+    public DefaultRetryPolicy() {
+        this(DEFAULT_MAX_RETRIES);
+    }
+
+    public DefaultRetryPolicy(int maxNumRetries) {
+        this(maxNumRetries, 0, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxElapsed stop retrying after this time since the first failure, 0 for no limit.
+     */
+    public DefaultRetryPolicy(int maxNumRetries, long initialBackoff, long maxBackoff,
+                              long maxElapsed, TimeUnit unit) {
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("0 <= initialBackoff <= maxBackoff is required");
+        }
+        if (maxElapsed < 0) {
+            throw new IllegalArgumentException("maxElapsed < 0");
+        }
+        mMaxNumRetries = maxNumRetries;
+        mInitialBackoffMs = unit.toMillis(initialBackoff);
+        mMaxBackoffMs = unit.toMillis(maxBackoff);
+        mMaxElapsedMs = unit.toMillis(maxElapsed);
+    }
+
+    public int getCurrentRetryCount() {
+        return mCurrentRetryCount;
+    }
+
+    @Override
+    public void retryOrNot(Throwable error) throws Throwable {
+        mCurrentRetryCount++;
+        if (!hasAttemptRemaining()) {
+            throw error;
+        }
+    }
+
+    @Override
+    public long nextBackoff(Throwable error) throws Throwable {
+        long now = System.nanoTime();
+        if (mCurrentRetryCount == 0) {
+            mFirstFailureNanos = now;
+        }
+        retryOrNot(error);
+
+        long remainingMs = Long.MAX_VALUE;
+        if (mMaxElapsedMs > 0) {
+            remainingMs = mMaxElapsedMs - TimeUnit.NANOSECONDS.toMillis(now - mFirstFailureNanos);
+            if (remainingMs <= 0) {
+                throw error;
+            }
+        }
+        if (mInitialBackoffMs == 0) {
+            return 0;
+        }
+
+        if (mRandom == null) {
+            mRandom = new Random();
+        }
+        long upper = Math.min(mMaxBackoffMs, Math.max(mInitialBackoffMs, mLastBackoffMs * 3));
+        long backoff = mInitialBackoffMs
+                + (long) (mRandom.nextDouble() * (upper - mInitialBackoffMs));
+        mLastBackoffMs = backoff;
+        return Math.min(backoff, remainingMs);
+    }
+
+    protected boolean hasAttemptRemaining() {
+        return mCurrentRetryCount <= mMaxNumRetries;
+    }
+}
@@ -0,0 +1,21 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * Delivered to a task when one of its dependencies failed or was canceled, see
+ * {@link Task#addDependency(Task)}.
+ */
+public class DependencyFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Task<?, ?> mDependency;
+
+    public DependencyFailedException(Task<?, ?> dependency) {
+        super("Dependency failed: " + dependency);
+        mDependency = dependency;
+    }
+
+    public Task<?, ?> getDependency() {
+        return mDependency;
+    }
+}
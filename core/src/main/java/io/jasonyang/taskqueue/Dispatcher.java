@@ -0,0 +1,153 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Created by JasonYang on 2015/7/27.
+ */
+final class Dispatcher extends Thread {
+
+    // Workers return to the pool as soon as they start, so only a few are ever in transit.
+    private static final int WORKER_POOL_SIZE = 16;
+
+    private final PendingQueue mPendingQueue;
+    private final ExecutorService mExecutor;
+    private final ResultDelivery mDelivery;
+    private final TaskPool.ExecutionMode mMode;
+    private final Semaphore mWorkerSlots;
+    private final PriorityLimits mPriorityLimits;
+    private final Platform mPlatform;
+    private final TaskPoolMetrics mMetrics;
+    private final ResultCache mResultCache;
+    private final RateLimiter mRateLimiter;
+    private final ObjectPool<WorkerRunnable> mWorkerPool;
+
+    private volatile boolean mQuit = false;
+
+    /**
+     * @param workerSlots limits the tasks handed to the executor at the same time, or {@code null}
+     *                    for no limit. A slot is taken before a task is taken from the queue, so
+     *                    the queue keeps ordering tasks while all workers are busy.
+     */
+    public Dispatcher(PendingQueue pendingQueue, ExecutorService executor,
+                      ResultDelivery delivery, TaskPool.ExecutionMode mode,
+                      Semaphore workerSlots, PriorityLimits priorityLimits, Platform platform,
+                      TaskPoolMetrics metrics, ResultCache resultCache,
+                      RateLimiter rateLimiter) {
+        mPendingQueue = pendingQueue;
+        mExecutor = executor;
+        mDelivery = delivery;
+        mMode = mode;
+        mWorkerSlots = workerSlots;
+        mPriorityLimits = priorityLimits;
+        mPlatform = platform;
+        mMetrics = metrics;
+        mResultCache = resultCache;
+        mRateLimiter = rateLimiter;
+        mWorkerPool = new ObjectPool<WorkerRunnable>(WORKER_POOL_SIZE);
+    }
+
+    public void quit() {
+        mQuit = true;
+        interrupt();
+    }
+
+    private WorkerRunnable obtainWorker(Task<?, ?> task) {
+        WorkerRunnable worker = mWorkerPool.acquire();
+        if (worker == null) {
+            worker = new WorkerRunnable(mWorkerPool, mDelivery, mMode, mWorkerSlots,
+                    mPriorityLimits, mPlatform, mMetrics, mResultCache);
+        }
+        worker.setTask(task);
+        return worker;
+    }
+
+    @Override
+    public void run() {
+        mPlatform.setBackgroundThreadPriority();
+        while (true) {
+            boolean handedOff = false;
+            boolean holdsWorkerSlot = false;
+            Task<?, ?> task = null;
+            boolean holdsPrioritySlot = false;
+            try {
+                // Wait for a free worker, then take a job from the queue.
+                if (mWorkerSlots != null) {
+                    mWorkerSlots.acquire();
+                    holdsWorkerSlot = true;
+                }
+                task = mPendingQueue.take();
+                task.releasePendingSlot();
+                holdsPrioritySlot = task.takePrioritySlot();
+                if (task.isCanceled()) {
+                    task.finish();
+                    continue;
+                }
+                if (task.isPastDeadline(System.nanoTime())) {
+                    // Too late to be of use, fail it without taking a worker.
+                    if (mMetrics != null) {
+                        mMetrics.onExpired();
+                    }
+                    mDelivery.postError(task, new DeadlineExceededException());
+                    continue;
+                }
+                if (mResultCache != null) {
+                    // An equal task may have finished while this one was pending.
+                    Result<?> cached = mResultCache.get(task);
+                    if (cached != null) {
+                        mDelivery.postResult(task, cached);
+                        continue;
+                    }
+                }
+                if (mRateLimiter != null) {
+                    long wait = mRateLimiter.acquire(task, System.nanoTime());
+                    if (wait > 0) {
+                        // Over the limit, park it on the timer and ask again once it's due.
+                        if (mMetrics != null) {
+                            mMetrics.onThrottled(wait);
+                        }
+                        task.park(wait);
+                        continue;
+                    }
+                }
+
+                if (mPriorityLimits != null && !holdsPrioritySlot) {
+                    if (!mPriorityLimits.enter(task)) {
+                        // Parked until a task of its priority finishes, go on with the next one.
+                        continue;
+                    }
+                    holdsPrioritySlot = true;
+                }
+
+                if (!mExecutor.isShutdown()) {
+                    WorkerRunnable worker = obtainWorker(task);
+                    try {
+                        mExecutor.execute(worker);
+                    } catch (RejectedExecutionException e) {
+                        worker.recycle();
+                        throw e;
+                    }
+                    handedOff = true;
+                }
+            } catch (InterruptedException e) {
+                // We may have been interrupted because it was time to quit.
+                if (mQuit) {
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down.
+            } finally {
+                if (!handedOff) {
+                    if (holdsPrioritySlot) {
+                        mPriorityLimits.leave(task);
+                    }
+                    if (holdsWorkerSlot) {
+                        mWorkerSlots.release();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes tasks that share an exclusive key.
+ * <p>
+ * Every key in flight owns a lane in a concurrent map. A lane is only locked by the tasks of its
+ * own key, so tasks with different keys never contend. A lane is removed from the map when its
+ * last task finishes; producers that raced with the removal retry on a fresh lane.
+ * <p>
+ * Parked tasks wait in one {@link TaskList} per priority, highest priority first and in the order
+ * they were parked within a priority, so a canceled one is unlinked without a search.
+ */
+final class ExclusiveLanes {
+
+    private final ConcurrentHashMap<String, Lane> mLanes = new ConcurrentHashMap<String, Lane>();
+
+    /**
+     * Returns true if the task may run now, or false if it was parked behind the task in flight.
+     */
+    boolean enter(String key, Task<?, ?> task) {
+        for (; ; ) {
+            Lane lane = mLanes.get(key);
+            if (lane == null) {
+                Lane newLane = new Lane();
+                lane = mLanes.putIfAbsent(key, newLane);
+                if (lane == null) {
+                    lane = newLane;
+                }
+            }
+            synchronized (lane) {
+                if (lane.mRemoved) {
+                    continue;
+                }
+                if (!lane.mBusy) {
+                    lane.mBusy = true;
+                    return true;
+                }
+                if (lane.mWaiting == null) {
+                    lane.mWaiting = new TaskList[Task.Priority.values().length];
+                }
+                int priority = task.getPriority().ordinal();
+                if (lane.mWaiting[priority] == null) {
+                    lane.mWaiting[priority] = new TaskList();
+                }
+                lane.mWaiting[priority].addLast(task);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Hands the key over to the next parked task, which is returned, or releases the key if no
+     * task is waiting for it.
+     */
+    Task<?, ?> leave(String key) {
+        Lane lane = mLanes.get(key);
+        if (lane == null) {
+            return null;
+        }
+        synchronized (lane) {
+            Task<?, ?> next = lane.poll();
+            if (next == null) {
+                lane.mBusy = false;
+                lane.mRemoved = true;
+                mLanes.remove(key, lane);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Unlinks a task parked behind the task in flight, returns false if it isn't parked.
+     */
+    boolean remove(String key, Task<?, ?> task) {
+        Lane lane = mLanes.get(key);
+        if (lane == null) {
+            return false;
+        }
+        synchronized (lane) {
+            TaskList waiting = lane.mWaiting != null
+                    ? lane.mWaiting[task.getPriority().ordinal()] : null;
+            return waiting != null && waiting.remove(task);
+        }
+    }
+
+    void clear() {
+        for (Lane lane : mLanes.values()) {
+            synchronized (lane) {
+                if (lane.mWaiting != null) {
+                    for (TaskList waiting : lane.mWaiting) {
+                        if (waiting != null) {
+                            waiting.clear();
+                        }
+                    }
+                }
+            }
+        }
+        mLanes.clear();
+    }
+
+    private static final class Lane {
+
+        private TaskList[] mWaiting;
+        private boolean mBusy;
+        private boolean mRemoved;
+
+        Task<?, ?> poll() {
+            if (mWaiting == null) {
+                return null;
+            }
+            for (int i = mWaiting.length - 1; i >= 0; i--) {
+                Task<?, ?> task = mWaiting[i] != null ? mWaiting[i].pollFirst() : null;
+                if (task != null) {
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+}
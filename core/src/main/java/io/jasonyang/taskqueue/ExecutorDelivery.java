@@ -0,0 +1,122 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Created by JasonYang on 2015/7/28.
+ */
+public class ExecutorDelivery implements ResultDelivery {
+
+    private final Executor mResponsePoster;
+    // Per delivery, so pools with their own deliveries don't contend on a shared one.
+    private final ObjectPool<ResponseDeliveryRunnable> mDeliveryPool
+            = ResponseDeliveryRunnable.newPool();
+
+    /**
+     * Deliver on the {@link Platform#defaultCallbackExecutor()}, the main thread on Android.
+     */
+    public ExecutorDelivery() {
+        this(Platform.get().defaultCallbackExecutor());
+    }
+
+    public ExecutorDelivery(Executor executor) {
+        mResponsePoster = executor;
+    }
+
+    @Override
+    public void postResult(Task<?, ?> task, Result<?> result) {
+        postResult(task, result, null);
+    }
+
+    @Override
+    public void postResult(Task<?, ?> task, Result<?> result, Runnable runnable) {
+        mResponsePoster.execute(
+                ResponseDeliveryRunnable.obtain(mDeliveryPool, task, result, runnable));
+    }
+
+    @Override
+    public void postError(Task<?, ?> task, Throwable error) {
+        Result<?> result = Result.error(error);
+        mResponsePoster.execute(
+                ResponseDeliveryRunnable.obtain(mDeliveryPool, task, result, null));
+    }
+
+    /**
+     * Delivers one result. Instances are recycled into the pool they came from once they have
+     * run, so get one with {@link #obtain(ObjectPool, Task, Result, Runnable)} and post it only
+     * once.
+     */
+    @SuppressWarnings("rawtypes")
+    static final class ResponseDeliveryRunnable implements Runnable {
+
+        private static final int POOL_SIZE = 64;
+
+        private ObjectPool<ResponseDeliveryRunnable> mPool;
+        private Task mTask;
+        private Result mResult;
+        private Runnable mRunnable;
+
+        private ResponseDeliveryRunnable() {
+        }
+
+        static ObjectPool<ResponseDeliveryRunnable> newPool() {
+            return new ObjectPool<ResponseDeliveryRunnable>(POOL_SIZE);
+        }
+
+        static ResponseDeliveryRunnable obtain(ObjectPool<ResponseDeliveryRunnable> pool,
+                                               Task task, Result result, Runnable runnable) {
+            ResponseDeliveryRunnable delivery = pool.acquire();
+            if (delivery == null) {
+                delivery = new ResponseDeliveryRunnable();
+            }
+            delivery.mPool = pool;
+            delivery.mTask = task;
+            delivery.mResult = result;
+            delivery.mRunnable = runnable;
+            return delivery;
+        }
+
+        @Override
+        public void run() {
+            Task task = mTask;
+            Result result = mResult;
+            Runnable runnable = mRunnable;
+            mTask = null;
+            mResult = null;
+            mRunnable = null;
+            mPool.release(this);
+
+            if (deliver(task, result) && runnable != null) {
+                runnable.run();
+            }
+        }
+
+        /**
+         * Returns false if the task was canceled and nothing was delivered.
+         */
+        @SuppressWarnings("unchecked")
+        static boolean deliver(Task task, Result result) {
+            // If this request has canceled, finish it and don't deliver.
+            if (task.isCanceled()) {
+                task.finish();
+                return false;
+            }
+
+            if (result.isSuccess()) {
+                task.markDelivered();
+                task.deliverResult(result.result);
+            } else {
+                task.deliverError(result.error);
+            }
+
+            // Tasks coalesced into this one get the same outcome.
+            for (Object follower : task.detachFollowers()) {
+                deliver((Task) follower, result);
+            }
+
+            task.finish();
+            return true;
+        }
+    }
+
+}
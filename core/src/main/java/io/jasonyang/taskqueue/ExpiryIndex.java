@@ -0,0 +1,114 @@
+package io.jasonyang.taskqueue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tasks of a pool which have a deadline, ordered by it. A single timeout on the
+ * {@link TaskTimer} is armed for the earliest deadline; when it fires, the tasks whose deadline
+ * has passed are handed to {@link TaskPool#expire(Task)} and the timeout is armed for the next.
+ * Nothing ever scans the pending queue for expired tasks.
+ * <p>
+ * A task is indexed by the deadline it has when it's added, so changing it afterwards can't break
+ * the order of the index.
+ */
+final class ExpiryIndex implements Runnable {
+
+    private final TaskPool mTaskPool;
+    private final TreeMap<Key, Task<?, ?>> mTasks = new TreeMap<Key, Task<?, ?>>();
+    private final Map<Task<?, ?>, Key> mKeys = new IdentityHashMap<Task<?, ?>, Key>();
+    // Orders tasks with the same deadline as they were added.
+    private long mAdded;
+    private TaskTimer.Timeout mTimeout;
+    private long mArmedDeadline;
+
+    ExpiryIndex(TaskPool taskPool) {
+        mTaskPool = taskPool;
+    }
+
+    synchronized void add(Task<?, ?> task) {
+        if (mKeys.containsKey(task)) {
+            return;
+        }
+        Key key = new Key(task.getDeadline(), mAdded++);
+        mKeys.put(task, key);
+        mTasks.put(key, task);
+        if (mTasks.firstKey() == key) {
+            arm(key.mDeadline);
+        }
+    }
+
+    /**
+     * Called once the task finished. The timeout stays armed, it just finds nothing to expire.
+     */
+    synchronized void remove(Task<?, ?> task) {
+        Key key = mKeys.remove(task);
+        if (key != null) {
+            mTasks.remove(key);
+        }
+    }
+
+    synchronized void clear() {
+        mTasks.clear();
+        mKeys.clear();
+        if (mTimeout != null) {
+            mTimeout.cancel();
+            mTimeout = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Task<?, ?>> expired = new ArrayList<Task<?, ?>>();
+        synchronized (this) {
+            mTimeout = null;
+            long now = System.nanoTime();
+            while (!mTasks.isEmpty() && mTasks.firstKey().mDeadline - now <= 0) {
+                Task<?, ?> task = mTasks.pollFirstEntry().getValue();
+                mKeys.remove(task);
+                expired.add(task);
+            }
+            if (!mTasks.isEmpty()) {
+                arm(mTasks.firstKey().mDeadline);
+            }
+        }
+        for (Task<?, ?> task : expired) {
+            mTaskPool.expire(task);
+        }
+    }
+
+    private void arm(long deadline) {
+        if (mTimeout != null) {
+            if (mArmedDeadline - deadline <= 0) {
+                return;
+            }
+            mTimeout.cancel();
+        }
+        long delay = Math.max(0, deadline - System.nanoTime());
+        mTimeout = TaskTimer.shared().schedule(this, delay, TimeUnit.NANOSECONDS);
+        mArmedDeadline = deadline;
+    }
+
+    private static final class Key implements Comparable<Key> {
+
+        final long mDeadline;
+        final long mAdded;
+
+        Key(long deadline, long added) {
+            mDeadline = deadline;
+            mAdded = added;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (mDeadline != other.mDeadline) {
+                return mDeadline - other.mDeadline < 0 ? -1 : 1;
+            }
+            return mAdded < other.mAdded ? -1 : mAdded == other.mAdded ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram: every power
+ * of two is split in 8 buckets, which bounds the error of any reported value to 12.5%. Recording
+ * is a few atomic increments. Like a {@link StripedCounter}, the counts are striped by thread, so
+ * threads recording at the same time rarely touch the same cache line; a stripe is only allocated
+ * once a thread records into it, and snapshots add the stripes up.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<AtomicLongArray> mStripes
+            = new AtomicReferenceArray<AtomicLongArray>(StripedCounter.STRIPES);
+    private final StripedCounter mTotal = new StripedCounter();
+    private final AtomicLong mMax = new AtomicLong();
+
+    Histogram() {
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts().getAndIncrement(indexOf(nanos));
+        mTotal.add(nanos);
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+            // Another thread raised the max in the meantime, try again.
+        }
+    }
+
+    Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int stripe = 0; stripe < mStripes.length(); stripe++) {
+            AtomicLongArray stripeCounts = mStripes.get(stripe);
+            if (stripeCounts == null) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripeCounts.get(i);
+            }
+        }
+        return new Snapshot(counts, mTotal.sum(), mMax.get());
+    }
+
+    private AtomicLongArray counts() {
+        int stripe = StripedCounter.stripe();
+        AtomicLongArray counts = mStripes.get(stripe);
+        if (counts == null) {
+            // Another thread of the stripe may get there first, then use its counts.
+            mStripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+            counts = mStripes.get(stripe);
+        }
+        return counts;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mTotal;
+        private final long mMax;
+
+        private Snapshot(long[] counts, long total, long max) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mCounts = counts;
+            mCount = count;
+            mTotal = total;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax(TimeUnit unit) {
+            return unit.convert(mMax, TimeUnit.NANOSECONDS);
+        }
+
+        public long getMean(TimeUnit unit) {
+            return mCount == 0 ? 0 : unit.convert(mTotal / mCount, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         */
+        public long getValueAtPercentile(double percentile, TimeUnit unit) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= Math.max(1, rank)) {
+                    long value = Math.min(highestValueOf(i), mMax);
+                    return unit.convert(value, TimeUnit.NANOSECONDS);
+                }
+            }
+            return unit.convert(mMax, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one lock-free FIFO lane per {@link Task.Priority} and a bitmap of the lanes which may be
+ * non-empty, so adding, taking and removing a task is O(1) and never calls
+ * {@link Task#compareTo(Task)}.
+ * <p>
+ * Tasks of the same priority run in the order they were queued. Takers only take a lock while the
+ * queue is empty, and producers and other takers only to wake one of those. A task belongs to
+ * whoever takes it from the queue first, see {@link Task#takeFrom(PendingQueue)}, so
+ * {@link #remove(Task)} doesn't have to find it in its lane: its node is left behind, and dropped
+ * by the next taker or {@link #peek()} which reaches it.
+ */
+final class LanePendingQueue implements PendingQueue {
+
+    private final Lane[] mLanes = new Lane[Task.Priority.values().length];
+    // Bit i is set while lane i may hold tasks. It's set after a task is added to the lane and only
+    // cleared by a taker which found the lane empty, so it may be stale but never misses a task.
+    private final AtomicInteger mNonEmpty = new AtomicInteger();
+    // The number of queued tasks which are not yet claimed by a taker.
+    private final AtomicInteger mCount = new AtomicInteger();
+    // Takers waiting on mNotEmpty, so producers and other takers only take the lock to wake one.
+    private final AtomicInteger mWaiters = new AtomicInteger();
+    private final ReentrantLock mTakeLock = new ReentrantLock();
+    private final Condition mNotEmpty = mTakeLock.newCondition();
+
+    LanePendingQueue() {
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane();
+        }
+    }
+
+    @Override
+    public void add(Task<?, ?> task) {
+        int lane = task.getPriority().ordinal();
+        task.setQueuedIn(this);
+        mLanes[lane].offer(task);
+        setBit(lane);
+        if (mCount.getAndIncrement() == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    @Override
+    public Task<?, ?> take() throws InterruptedException {
+        if (!tryClaim()) {
+            mTakeLock.lockInterruptibly();
+            // Counted before claiming again, so a producer adding meanwhile either leaves the task
+            // for this claim or sees the waiter and signals.
+            mWaiters.incrementAndGet();
+            try {
+                while (!tryClaim()) {
+                    mNotEmpty.await();
+                }
+            } finally {
+                mWaiters.decrementAndGet();
+                mTakeLock.unlock();
+            }
+        }
+        Task<?, ?> task = pollClaimed();
+        if (task == null) {
+            throw new InterruptedException();
+        }
+        if (mCount.get() > 0) {
+            // Cascade the wake up to the other takers.
+            signalNotEmpty();
+        }
+        return task;
+    }
+
+    @Override
+    public Task<?, ?> poll() {
+        return tryClaim() ? pollClaimed() : null;
+    }
+
+    @Override
+    public Task<?, ?> peek() {
+        int bits = mNonEmpty.get();
+        while (bits != 0) {
+            int lane = 31 - Integer.numberOfLeadingZeros(bits);
+            Task<?, ?> task = mLanes[lane].peek(this);
+            if (task != null) {
+                return task;
+            }
+            bits &= ~(1 << lane);
+        }
+        return null;
+    }
+
+    @Override
+    public Task<?, ?> pollLowest() {
+        if (!tryClaim()) {
+            return null;
+        }
+        // Only used when the pending capacity overflows, so walking a lane to its tail is fine.
+        for (Lane lane : mLanes) {
+            for (; ; ) {
+                Task<?, ?> last = lane.peekLast(this);
+                if (last == null) {
+                    break;
+                }
+                if (last.takeFrom(this)) {
+                    return last;
+                }
+            }
+        }
+        // The queue was cleared while we were claiming.
+        return null;
+    }
+
+    @Override
+    public boolean contains(Task<?, ?> task) {
+        return task.isQueuedIn(this);
+    }
+
+    @Override
+    public boolean remove(Task<?, ?> task) {
+        // Leave the count alone unless the task is here, takers may be counting on it.
+        if (!task.isQueuedIn(this) || !tryClaim()) {
+            return false;
+        }
+        if (task.takeFrom(this)) {
+            return true;
+        }
+        // A taker got it first, give the claim back.
+        if (mCount.getAndIncrement() == 0) {
+            signalNotEmpty();
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return mCount.get();
+    }
+
+    @Override
+    public void clear() {
+        for (Lane lane : mLanes) {
+            Task<?, ?> task;
+            while ((task = lane.poll()) != null) {
+                task.takeFrom(this);
+            }
+        }
+        mCount.set(0);
+    }
+
+    private boolean tryClaim() {
+        for (; ; ) {
+            int count = mCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (mCount.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Task<?, ?> pollClaimed() {
+        // A claimed task is in one of the lanes, but its bit may not be set yet, or another claimer
+        // may take it from under our feet. Keep looking until one is left for us.
+        for (; ; ) {
+            int bits = mNonEmpty.get();
+            while (bits != 0) {
+                int lane = 31 - Integer.numberOfLeadingZeros(bits);
+                Task<?, ?> task;
+                while ((task = mLanes[lane].poll()) != null) {
+                    if (task.takeFrom(this)) {
+                        return task;
+                    }
+                    // Removed while it was queued, its claim went with it.
+                }
+                clearBit(lane);
+                bits &= ~(1 << lane);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // The queue was cleared while we were claiming.
+                return null;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void setBit(int lane) {
+        int bit = 1 << lane;
+        for (; ; ) {
+            int bits = mNonEmpty.get();
+            if ((bits & bit) != 0 || mNonEmpty.compareAndSet(bits, bits | bit)) {
+                return;
+            }
+        }
+    }
+
+    private void clearBit(int lane) {
+        int bit = 1 << lane;
+        for (; ; ) {
+            int bits = mNonEmpty.get();
+            if ((bits & bit) == 0 || mNonEmpty.compareAndSet(bits, bits & ~bit)) {
+                break;
+            }
+        }
+        // A task may have been added after we found the lane empty but before the bit was cleared.
+        if (!mLanes[lane].isEmpty()) {
+            setBit(lane);
+        }
+    }
+
+    private void signalNotEmpty() {
+        if (mWaiters.get() == 0) {
+            // A taker which comes along claims without the lock.
+            return;
+        }
+        mTakeLock.lock();
+        try {
+            mNotEmpty.signal();
+        } finally {
+            mTakeLock.unlock();
+        }
+    }
+
+    /**
+     * A lock-free linked FIFO of tasks, after Michael and Scott. The head is a dummy node, the
+     * first task is in the node after it. Unlike a ConcurrentLinkedQueue, a node which is known
+     * to be at the head can be dropped without the risk of dropping another one, so peeking can
+     * skip removed tasks for good even when a task is queued twice.
+     */
+    private static final class Lane {
+
+        private final AtomicReference<Node> mHead;
+        private final AtomicReference<Node> mTail;
+
+        Lane() {
+            Node dummy = new Node(null);
+            mHead = new AtomicReference<Node>(dummy);
+            mTail = new AtomicReference<Node>(dummy);
+        }
+
+        void offer(Task<?, ?> task) {
+            Node node = new Node(task);
+            for (; ; ) {
+                Node tail = mTail.get();
+                Node next = tail.mNext;
+                if (next != null) {
+                    // Help the producer which linked it to move the tail.
+                    mTail.compareAndSet(tail, next);
+                } else if (Node.NEXT.compareAndSet(tail, null, node)) {
+                    mTail.compareAndSet(tail, node);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Unlinks the first node and returns its task, which may have been taken already.
+         */
+        Task<?, ?> poll() {
+            for (; ; ) {
+                Node head = mHead.get();
+                Node first = head.mNext;
+                if (first == null) {
+                    return null;
+                }
+                if (mHead.compareAndSet(head, first)) {
+                    return first.mTask;
+                }
+            }
+        }
+
+        /**
+         * Returns the first task still queued in the given queue, dropping the ones in front of it.
+         */
+        Task<?, ?> peek(PendingQueue queue) {
+            for (; ; ) {
+                Node head = mHead.get();
+                Node first = head.mNext;
+                if (first == null) {
+                    return null;
+                }
+                if (first.mTask.isQueuedIn(queue)) {
+                    return first.mTask;
+                }
+                mHead.compareAndSet(head, first);
+            }
+        }
+
+        /**
+         * Returns the last task still queued in the given queue, walking the whole lane.
+         */
+        Task<?, ?> peekLast(PendingQueue queue) {
+            Task<?, ?> last = null;
+            for (Node node = mHead.get().mNext; node != null; node = node.mNext) {
+                if (node.mTask.isQueuedIn(queue)) {
+                    last = node.mTask;
+                }
+            }
+            return last;
+        }
+
+        boolean isEmpty() {
+            return mHead.get().mNext == null;
+        }
+    }
+
+    private static final class Node {
+
+        static final AtomicReferenceFieldUpdater<Node, Node> NEXT
+                = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "mNext");
+
+        // Left in place once the node becomes the dummy head, until the next one is taken.
+        final Task<?, ?> mTask;
+        volatile Node mNext;
+
+        Node(Task<?, ?> task) {
+            mTask = task;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * A bounded stack of objects to reuse, so short-lived objects on the hot path aren't allocated for
+ * every task. {@link #acquire()} returns null when the pool is empty and {@link #release(Object)}
+ * drops the object when it is full, so the pool never grows past its capacity.
+ */
+final class ObjectPool<T> {
+
+    private final Object[] mItems;
+    private int mSize;
+
+    ObjectPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        mItems = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T acquire() {
+        if (mSize == 0) {
+            return null;
+        }
+        T item = (T) mItems[--mSize];
+        mItems[mSize] = null;
+        return item;
+    }
+
+    synchronized void release(T item) {
+        if (mSize < mItems.length) {
+            mItems[mSize++] = item;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * The queue of tasks that are ready to be handed to a worker by the {@link Dispatcher}.
+ */
+interface PendingQueue {
+
+    void add(Task<?, ?> task);
+
+    /**
+     * Retrieves and removes the next task to run, waiting if necessary until one is available.
+     */
+    Task<?, ?> take() throws InterruptedException;
+
+    /**
+     * Retrieves and removes the next task to run, or returns {@code null} if empty.
+     */
+    Task<?, ?> poll();
+
+    /**
+     * Retrieves the next task to run without removing it, or returns {@code null} if empty.
+     */
+    Task<?, ?> peek();
+
+    /**
+     * Retrieves and removes the task that would run last, or returns {@code null} if empty.
+     */
+    Task<?, ?> pollLowest();
+
+    /**
+     * Returns true if the task is in the queue, it may be taken right after.
+     */
+    boolean contains(Task<?, ?> task);
+
+    /**
+     * Removes the given task, returns false if it isn't in the queue, for example because it was
+     * taken already.
+     */
+    boolean remove(Task<?, ?> task);
+
+    int size();
+
+    void clear();
+}
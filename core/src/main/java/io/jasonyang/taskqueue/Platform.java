@@ -0,0 +1,95 @@
+package io.jasonyang.taskqueue;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The few things the task pool needs from the platform it runs on.
+ * <p>
+ * {@link #get()} returns the Android platform when the {@code library} module is on the class
+ * path, and a plain JVM platform otherwise.
+ */
+public abstract class Platform {
+
+    private static final String ANDROID_PLATFORM = "io.jasonyang.taskqueue.AndroidPlatform";
+
+    private static final Platform PLATFORM = findPlatform();
+
+    public static Platform get() {
+        return PLATFORM;
+    }
+
+    private static Platform findPlatform() {
+        try {
+            return (Platform) Class.forName(ANDROID_PLATFORM).newInstance();
+        } catch (Exception e) {
+            return new Jvm();
+        } catch (LinkageError e) {
+            // The adapter is there, but Android isn't.
+            return new Jvm();
+        }
+    }
+
+    /**
+     * Called by dispatcher and worker threads before they start working.
+     */
+    public abstract void setBackgroundThreadPriority();
+
+    /**
+     * The executor results are delivered on when no other one is given, the main thread on
+     * Android.
+     */
+    public abstract Executor defaultCallbackExecutor();
+
+    /**
+     * Returns an executor which starts a virtual thread per task, or null if the platform has no
+     * virtual threads.
+     */
+    public ExecutorService newVirtualThreadExecutor() {
+        return null;
+    }
+
+    static class Jvm extends Platform {
+
+        // Java 21 and later. Looked up by reflection, the core is built for older targets.
+        private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+        private static Method findVirtualThreadExecutor() {
+            try {
+                return Class.forName("java.util.concurrent.Executors")
+                        .getMethod("newVirtualThreadPerTaskExecutor");
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void setBackgroundThreadPriority() {
+            // Leave the JVM thread priority alone, it is ignored by most schedulers anyway.
+        }
+
+        @Override
+        public Executor defaultCallbackExecutor() {
+            // There is no main thread, deliver on the worker thread.
+            return new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }
+
+        @Override
+        public ExecutorService newVirtualThreadExecutor() {
+            if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+                return null;
+            }
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+}
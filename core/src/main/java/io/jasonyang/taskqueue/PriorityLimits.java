@@ -0,0 +1,88 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * Limits the tasks of each priority running at the same time.
+ * <p>
+ * A dispatcher enters a task before it hands the task to a worker. A task whose priority is at its
+ * limit is parked here instead, without holding a worker, so the dispatcher goes on with tasks of
+ * other priorities. When a task of that priority leaves, its slot is handed over to the task
+ * parked first, which goes back into the pending queue holding it.
+ */
+final class PriorityLimits {
+
+    private final int[] mLimits;
+    // Guarded by this.
+    private final int[] mRunning;
+    private final TaskList[] mWaiting;
+
+    /**
+     * Returns null if no priority has a limit.
+     */
+    static PriorityLimits create(int[] limits) {
+        for (int limit : limits) {
+            if (limit > 0) {
+                return new PriorityLimits(limits);
+            }
+        }
+        return null;
+    }
+
+    private PriorityLimits(int[] limits) {
+        mLimits = limits.clone();
+        mRunning = new int[limits.length];
+        mWaiting = new TaskList[limits.length];
+        for (int i = 0; i < limits.length; i++) {
+            mWaiting[i] = new TaskList();
+        }
+    }
+
+    /**
+     * Returns true if the task may run now, or false if it was parked until a slot of its priority
+     * is free.
+     */
+    synchronized boolean enter(Task<?, ?> task) {
+        int priority = task.getPriority().ordinal();
+        if (mLimits[priority] == 0) {
+            return true;
+        }
+        if (mRunning[priority] < mLimits[priority]) {
+            mRunning[priority]++;
+            return true;
+        }
+        mWaiting[priority].addLast(task);
+        return false;
+    }
+
+    /**
+     * Gives up the slot of an entered task, handing it over to the next parked task if there is
+     * one.
+     */
+    void leave(Task<?, ?> task) {
+        int priority = task.getPriority().ordinal();
+        if (mLimits[priority] == 0) {
+            return;
+        }
+        Task<?, ?> next;
+        synchronized (this) {
+            next = mWaiting[priority].pollFirst();
+            if (next == null) {
+                mRunning[priority]--;
+                return;
+            }
+        }
+        next.resumeWithPrioritySlot();
+    }
+
+    /**
+     * Unlinks a parked task, returns false if it isn't parked.
+     */
+    synchronized boolean remove(Task<?, ?> task) {
+        return mWaiting[task.getPriority().ordinal()].remove(task);
+    }
+
+    synchronized void clear() {
+        for (TaskList waiting : mWaiting) {
+            waiting.clear();
+        }
+    }
+}
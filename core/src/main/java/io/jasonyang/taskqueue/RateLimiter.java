@@ -0,0 +1,149 @@
+package io.jasonyang.taskqueue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Token buckets for the tasks a pool starts: one for all tasks, one per {@link Task.Priority} and
+ * one per exclusive key, each only if configured. A task starts when every bucket it falls into
+ * has given it a token.
+ * <p>
+ * Buckets are kept as a theoretical arrival time (GCRA), so refilling costs nothing and an idle
+ * bucket is just a time in the past. All buckets of a pool share one lock, which is only taken by
+ * dispatchers, and only for a few arithmetic operations.
+ */
+final class RateLimiter {
+
+    // Idle key buckets are dropped once there are this many, or twice as many as after the last
+    // sweep, so a large or changing set of keys doesn't grow the map forever.
+    private static final int MIN_SWEEP_SIZE = 64;
+
+    private final Bucket mGlobal;
+    private final Bucket[] mByPriority;
+    private final Limit mPerKey;
+    private final Map<String, Limit> mKeyLimits;
+    private final Map<String, Bucket> mByKey = new HashMap<String, Bucket>();
+    private int mSweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * @param global     the limit of all tasks, or null.
+     * @param byPriority the limit per priority, null entries for none.
+     * @param perKey     the limit of every exclusive key without a limit of its own, or null.
+     * @param keyLimits  the limits of single exclusive keys.
+     */
+    RateLimiter(Limit global, Limit[] byPriority, Limit perKey, Map<String, Limit> keyLimits) {
+        long now = System.nanoTime();
+        mGlobal = global != null ? new Bucket(global, now) : null;
+        mByPriority = new Bucket[byPriority.length];
+        for (int i = 0; i < byPriority.length; i++) {
+            mByPriority[i] = byPriority[i] != null ? new Bucket(byPriority[i], now) : null;
+        }
+        mPerKey = perKey;
+        mKeyLimits = new HashMap<String, Limit>(keyLimits);
+    }
+
+    /**
+     * Takes a token from every bucket of the task if each of them has one, and returns 0; or
+     * takes none and returns how many nanoseconds from now the last of them gets one. A task held
+     * back by one bucket doesn't use up the tokens of the others while it waits. It has to ask
+     * again once the wait passed, since other tasks may have taken the tokens meanwhile.
+     */
+    synchronized long acquire(Task<?, ?> task, long now) {
+        Bucket priority = mByPriority[task.getPriority().ordinal()];
+        Bucket key = keyBucket(task.getExclusiveKey(), now);
+        long wait = Math.max(waitFor(mGlobal, now), Math.max(waitFor(priority, now),
+                waitFor(key, now)));
+        if (wait > 0) {
+            return wait;
+        }
+        take(mGlobal, now);
+        take(priority, now);
+        take(key, now);
+        return 0;
+    }
+
+    private Bucket keyBucket(String exclusiveKey, long now) {
+        if (exclusiveKey == null || exclusiveKey.length() == 0) {
+            return null;
+        }
+        Bucket bucket = mByKey.get(exclusiveKey);
+        if (bucket != null) {
+            return bucket;
+        }
+        Limit limit = mKeyLimits.get(exclusiveKey);
+        if (limit == null) {
+            limit = mPerKey;
+        }
+        if (limit == null) {
+            return null;
+        }
+        if (mByKey.size() >= mSweepSize) {
+            sweep(now);
+        }
+        bucket = new Bucket(limit, now);
+        mByKey.put(exclusiveKey, bucket);
+        return bucket;
+    }
+
+    private void sweep(long now) {
+        for (Iterator<Bucket> it = mByKey.values().iterator(); it.hasNext(); ) {
+            // A bucket whose arrival time has passed is full, a new one would be the same.
+            if (it.next().mArrival - now <= 0) {
+                it.remove();
+            }
+        }
+        mSweepSize = Math.max(MIN_SWEEP_SIZE, mByKey.size() * 2);
+    }
+
+    /**
+     * Returns how long until the bucket has a token, 0 if it has one now.
+     */
+    private static long waitFor(Bucket bucket, long now) {
+        if (bucket == null) {
+            return 0;
+        }
+        Limit limit = bucket.mLimit;
+        return Math.max(bucket.mArrival + limit.mInterval - limit.mTolerance - now, 0);
+    }
+
+    private static void take(Bucket bucket, long now) {
+        if (bucket != null) {
+            bucket.mArrival = Math.max(bucket.mArrival, now) + bucket.mLimit.mInterval;
+        }
+    }
+
+    /**
+     * A rate with a burst size, the number of tokens a full bucket holds.
+     */
+    static final class Limit {
+
+        final long mInterval;
+        final long mTolerance;
+
+        Limit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond <= 0");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst < 1");
+            }
+            mInterval = Math.max((long) (1e9 / permitsPerSecond), 1);
+            mTolerance = mInterval * burst;
+        }
+    }
+
+    private static final class Bucket {
+
+        final Limit mLimit;
+        long mArrival;
+
+        /**
+         * Makes a full bucket: the next token is due at the given time.
+         */
+        Bucket(Limit limit, long now) {
+            mLimit = limit;
+            mArrival = now;
+        }
+    }
+}
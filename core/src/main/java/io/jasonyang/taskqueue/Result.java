@@ -5,11 +5,15 @@ package io.jasonyang.taskqueue;
  */
 public class Result<T> {
 
+    // Shared by all tasks which return null, a Result is immutable.
+    private static final Result<Object> NULL = new Result<Object>((Object) null);
+
     public final T result;
     public final Throwable error;
 
+    @SuppressWarnings("unchecked")
     public static <T> Result<T> success(T result) {
-        return new Result<T>(result);
+        return result == null ? (Result<T>) NULL : new Result<T>(result);
     }
 
     public static <T> Result<T> error(Throwable error) {
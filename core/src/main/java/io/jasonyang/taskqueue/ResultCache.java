@@ -0,0 +1,212 @@
+package io.jasonyang.taskqueue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of tasks with a {@link Task#getCacheKey()}, so a pool can deliver them to
+ * later tasks with the same key without running those, see
+ * {@link TaskPool.Builder#setResultCache(ResultCache)}.
+ * <p>
+ * Entries expire after a time to live and the least recently used ones are evicted once the total
+ * weight exceeds the max weight. Override {@link #weigh(Object, Object)} to weigh results by size.
+ * Keys are scoped by task class, so different kinds of tasks can't see each other's results.
+ */
+public class ResultCache {
+
+    private final LinkedHashMap<Key, Entry> mEntries
+            = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final int mMaxWeight;
+    private final long mTtlNanos;
+    private int mWeight;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+    private int mExpiredCount;
+
+    /**
+     * @param maxWeight the max total weight of the cached results, by default their count.
+     * @param ttl       how long a result stays fresh, or 0 to keep it until it's evicted.
+     */
+    public ResultCache(int maxWeight, long ttl, TimeUnit unit) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight <= 0");
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl < 0");
+        }
+        mMaxWeight = maxWeight;
+        mTtlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the weight of a result, 1 by default. It must not change while the result is cached.
+     */
+    protected int weigh(Object key, Object result) {
+        return 1;
+    }
+
+    /**
+     * Returns the cached result for the task, or null when it has no cache key or there is none.
+     */
+    final Result<?> get(Task<?, ?> task) {
+        Object cacheKey = task.getCacheKey();
+        if (cacheKey == null) {
+            return null;
+        }
+        Key key = new Key(task.getClass(), cacheKey);
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && isExpired(entry, System.nanoTime())) {
+                mEntries.remove(key);
+                mWeight -= entry.mWeight;
+                mExpiredCount++;
+                entry = null;
+            }
+            if (entry == null) {
+                mMissCount++;
+                return null;
+            }
+            mHitCount++;
+            return Result.success(entry.mValue);
+        }
+    }
+
+    final void put(Task<?, ?> task, Object result) {
+        if (task instanceof Batcher.Carrier) {
+            // Each task of a batch has a key of its own, if any.
+            List<BatchTask<?, ?>> tasks = ((Batcher.Carrier) task).getTasks();
+            List<?> results = (List<?>) result;
+            for (int i = 0; i < tasks.size(); i++) {
+                Result<?> taskResult = (Result<?>) results.get(i);
+                if (taskResult.isSuccess()) {
+                    put(tasks.get(i), taskResult.result);
+                }
+            }
+            return;
+        }
+        Object cacheKey = task.getCacheKey();
+        if (cacheKey == null) {
+            return;
+        }
+        int weight = weigh(cacheKey, result);
+        if (weight < 0) {
+            throw new IllegalStateException("Negative weight: " + cacheKey + "=" + result);
+        }
+        if (weight > mMaxWeight) {
+            return;
+        }
+        long expiresAt = mTtlNanos > 0 ? System.nanoTime() + mTtlNanos : 0;
+        synchronized (this) {
+            mPutCount++;
+            Entry previous = mEntries.put(new Key(task.getClass(), cacheKey),
+                    new Entry(result, weight, expiresAt));
+            if (previous != null) {
+                mWeight -= previous.mWeight;
+            }
+            mWeight += weight;
+            trim();
+        }
+    }
+
+    public final synchronized void evictAll() {
+        mEntries.clear();
+        mWeight = 0;
+    }
+
+    /**
+     * Returns the total weight of the cached results, expired ones included until they're looked
+     * up or evicted.
+     */
+    public final synchronized int weight() {
+        return mWeight;
+    }
+
+    public final synchronized int maxWeight() {
+        return mMaxWeight;
+    }
+
+    public final synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public final synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    public final synchronized int expiredCount() {
+        return mExpiredCount;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("ResultCache[maxWeight=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxWeight, mHitCount, mMissCount, hitPercent);
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.mExpiresAt != 0 && now - entry.mExpiresAt >= 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Key, Entry>> it = mEntries.entrySet().iterator();
+        while (mWeight > mMaxWeight && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            mWeight -= entry.mWeight;
+            mEvictionCount++;
+        }
+    }
+
+    private static final class Entry {
+
+        final Object mValue;
+        final int mWeight;
+        final long mExpiresAt;
+
+        Entry(Object value, int weight, long expiresAt) {
+            mValue = value;
+            mWeight = weight;
+            mExpiresAt = expiresAt;
+        }
+    }
+
+    private static final class Key {
+
+        private final Class<?> mType;
+        private final Object mKey;
+
+        Key(Class<?> type, Object key) {
+            mType = type;
+            mKey = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mType == other.mType && mKey.equals(other.mKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mType.hashCode() + mKey.hashCode();
+        }
+    }
+}
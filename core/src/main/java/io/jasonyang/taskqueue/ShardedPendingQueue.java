@@ -0,0 +1,288 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spreads pending tasks over several pending queues, each with a dispatcher of its own.
+ * <p>
+ * Producers add to the shard picked by their thread, so they rarely share a queue lock. A
+ * dispatcher takes from its own shard, but steals from another shard whose next task outranks
+ * its own by more than the steal tolerance, counted in {@link Task.Priority} levels, or when its
+ * own shard is empty. A tolerance of 0 keeps the priority order across shards; a larger one keeps
+ * dispatchers on their own shard for longer.
+ */
+final class ShardedPendingQueue implements PendingQueue {
+
+    private final PendingQueue[] mShards;
+    private final int mStealTolerance;
+    // The number of queued tasks which are not yet claimed by a taker.
+    private final AtomicInteger mCount = new AtomicInteger();
+    // Takers waiting on mNotEmpty, so producers and other takers only take the lock to wake one.
+    private final AtomicInteger mWaiters = new AtomicInteger();
+    private final ReentrantLock mTakeLock = new ReentrantLock();
+    private final Condition mNotEmpty = mTakeLock.newCondition();
+
+    /**
+     * @param shards the queues to spread tasks over; only their non-blocking methods are used.
+     */
+    ShardedPendingQueue(PendingQueue[] shards, int stealTolerance) {
+        mShards = shards;
+        mStealTolerance = stealTolerance;
+    }
+
+    /**
+     * Returns a view of this queue which takes from the given shard first.
+     */
+    PendingQueue shard(int index) {
+        return new ShardView(index);
+    }
+
+    @Override
+    public void add(Task<?, ?> task) {
+        int index = (int) (Thread.currentThread().getId() % mShards.length);
+        mShards[index].add(task);
+        if (mCount.getAndIncrement() == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    @Override
+    public Task<?, ?> take() throws InterruptedException {
+        return take(0);
+    }
+
+    @Override
+    public Task<?, ?> poll() {
+        return tryClaim() ? pollClaimed(0) : null;
+    }
+
+    @Override
+    public Task<?, ?> peek() {
+        return peekShards(0);
+    }
+
+    @Override
+    public Task<?, ?> pollLowest() {
+        if (!tryClaim()) {
+            return null;
+        }
+        Task<?, ?> lowest = null;
+        int lowestShard = -1;
+        for (int i = 0; i < mShards.length; i++) {
+            Task<?, ?> task = mShards[i].pollLowest();
+            if (task == null) {
+                continue;
+            }
+            if (lowest == null || task.compareTo(lowest) > 0) {
+                if (lowest != null) {
+                    mShards[lowestShard].add(lowest);
+                }
+                lowest = task;
+                lowestShard = i;
+            } else {
+                mShards[i].add(task);
+            }
+        }
+        if (lowest == null && mCount.getAndIncrement() == 0) {
+            // Nothing to drop after all, give the claim back.
+            signalNotEmpty();
+        }
+        return lowest;
+    }
+
+    @Override
+    public boolean contains(Task<?, ?> task) {
+        for (PendingQueue shard : mShards) {
+            if (shard.contains(task)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(Task<?, ?> task) {
+        // Leave the count alone unless the task is here, takers may be counting on it.
+        if (!contains(task) || !tryClaim()) {
+            return false;
+        }
+        for (PendingQueue shard : mShards) {
+            if (shard.remove(task)) {
+                return true;
+            }
+        }
+        // A taker got it first, give the claim back.
+        if (mCount.getAndIncrement() == 0) {
+            signalNotEmpty();
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (PendingQueue shard : mShards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (PendingQueue shard : mShards) {
+            shard.clear();
+        }
+        mCount.set(0);
+    }
+
+    private Task<?, ?> take(int home) throws InterruptedException {
+        if (!tryClaim()) {
+            mTakeLock.lockInterruptibly();
+            // Counted before claiming again, so a producer adding meanwhile either leaves the task
+            // for this claim or sees the waiter and signals.
+            mWaiters.incrementAndGet();
+            try {
+                while (!tryClaim()) {
+                    mNotEmpty.await();
+                }
+            } finally {
+                mWaiters.decrementAndGet();
+                mTakeLock.unlock();
+            }
+        }
+        Task<?, ?> task = pollClaimed(home);
+        if (task == null) {
+            throw new InterruptedException();
+        }
+        if (mCount.get() > 0) {
+            // Cascade the wake up to the other dispatchers.
+            signalNotEmpty();
+        }
+        return task;
+    }
+
+    private boolean tryClaim() {
+        for (; ; ) {
+            int count = mCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (mCount.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Task<?, ?> pollClaimed(int home) {
+        // A claimed task is in one of the shards, but may be taken from under our feet by another
+        // claimer picking it from a different shard. Keep looking until one is left for us.
+        for (; ; ) {
+            Task<?, ?> next = peekShards(home);
+            if (next != null) {
+                Task<?, ?> task = mShards[indexOf(next, home)].poll();
+                if (task != null) {
+                    return task;
+                }
+            } else if (Thread.currentThread().isInterrupted()) {
+                // The queue was cleared while we were claiming.
+                return null;
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private Task<?, ?> peekShards(int home) {
+        Task<?, ?> best = mShards[home].peek();
+        for (int i = 1; i < mShards.length; i++) {
+            Task<?, ?> task = mShards[(home + i) % mShards.length].peek();
+            if (task != null && (best == null || outranks(task, best))) {
+                best = task;
+            }
+        }
+        return best;
+    }
+
+    private int indexOf(Task<?, ?> task, int home) {
+        for (int i = 0; i < mShards.length; i++) {
+            int index = (home + i) % mShards.length;
+            if (mShards[index].peek() == task) {
+                return index;
+            }
+        }
+        return home;
+    }
+
+    private boolean outranks(Task<?, ?> task, Task<?, ?> other) {
+        return task.getPriority().ordinal() - other.getPriority().ordinal() > mStealTolerance;
+    }
+
+    private void signalNotEmpty() {
+        if (mWaiters.get() == 0) {
+            // A taker which comes along claims without the lock.
+            return;
+        }
+        mTakeLock.lock();
+        try {
+            mNotEmpty.signal();
+        } finally {
+            mTakeLock.unlock();
+        }
+    }
+
+    private final class ShardView implements PendingQueue {
+
+        private final int mIndex;
+
+        ShardView(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void add(Task<?, ?> task) {
+            ShardedPendingQueue.this.add(task);
+        }
+
+        @Override
+        public Task<?, ?> take() throws InterruptedException {
+            return ShardedPendingQueue.this.take(mIndex);
+        }
+
+        @Override
+        public Task<?, ?> poll() {
+            return tryClaim() ? pollClaimed(mIndex) : null;
+        }
+
+        @Override
+        public Task<?, ?> peek() {
+            return peekShards(mIndex);
+        }
+
+        @Override
+        public Task<?, ?> pollLowest() {
+            return ShardedPendingQueue.this.pollLowest();
+        }
+
+        @Override
+        public boolean contains(Task<?, ?> task) {
+            return ShardedPendingQueue.this.contains(task);
+        }
+
+        @Override
+        public boolean remove(Task<?, ?> task) {
+            return ShardedPendingQueue.this.remove(task);
+        }
+
+        @Override
+        public int size() {
+            return ShardedPendingQueue.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ShardedPendingQueue.this.clear();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over cache-line padded cells picked by thread, so threads counting at the same
+ * time rarely touch the same cell. Nothing is allocated after construction.
+ */
+final class StripedCounter {
+
+    // Longs per cache line, so that two cells never share one.
+    private static final int PADDING = 8;
+    // Shared with the histograms, which stripe their counts the same way.
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        mCells.getAndAdd(cell(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        return stripe() * PADDING;
+    }
+
+    /**
+     * Returns the stripe of the current thread, from 0 to {@link #STRIPES} - 1.
+     */
+    static int stripe() {
+        // Spread consecutive thread ids over the stripes.
+        long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 40 & (STRIPES - 1));
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,665 @@
+package io.jasonyang.taskqueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Created by jasonyang on 2015/4/20.
+ */
+public abstract class Task<I, O> implements Comparable<Task<I, O>> {
+
+    static final int DEPENDENCY_PENDING = 0;
+    static final int DEPENDENCY_SUCCEEDED = 1;
+    static final int DEPENDENCY_FAILED = 2;
+
+    private static final ExecutorService sExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            1L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Task, PendingQueue> QUEUED_IN
+            = AtomicReferenceFieldUpdater.newUpdater(Task.class, PendingQueue.class, "mQueuedIn");
+    private transient TaskPool mTaskPool;
+    private Result.ErrorListener mErrorListener;
+    private int mSequence;
+    private boolean mHasSequence;
+    private boolean mResultDelivered = false;
+    private volatile boolean mIsCanceled = false;
+    private boolean mIsTimeout = false;
+    private RetryPolicy mRetryPolicy;
+    private Object mTag;
+    private long mTimeout = 0;
+    private long mDeadline;
+    private boolean mHasDeadline;
+    private long mRetryDelay = 0;
+    private long mJournalId = 0;
+    private long mAddTime;
+    private long mEnqueueTime;
+    private Future<O> mFuture;
+    private volatile Watchdog mWatchdog;
+    private Semaphore mPendingSlot;
+    private Coalescer.Group mCoalesceGroup;
+    private boolean mInLane;
+    private boolean mPrioritySlotHeld;
+    private volatile TimingWheel.Entry mDelayEntry;
+    // The lock-free queue the task waits in, cleared by whoever takes it out.
+    private volatile PendingQueue mQueuedIn;
+    // The links of the TaskList the task waits in, guarded by the owner of that list.
+    TaskList mList;
+    Task<?, ?> mListPrev;
+    Task<?, ?> mListNext;
+    private TaskSchedule mSchedule;
+    private List<Task<?, ?>> mDependencies;
+    // Guarded by this task, they're handed over once when it finishes.
+    private List<Task<?, ?>> mDependents;
+    private boolean mDependentsReleased;
+    private boolean mSucceeded;
+    // The dependencies left to finish, 0 once the task is released and negative once it failed.
+    private volatile AtomicInteger mUnmetDependencies;
+    private Priority mPriority = Priority.NORMAL;
+    private State mState = State.PENDING;
+
+    public Task(Result.ErrorListener listener) {
+        mErrorListener = listener;
+        setRetryPolicy(new DefaultRetryPolicy());
+    }
+
+    public abstract I getData();
+
+    public abstract void setData(I data);
+
+    public boolean isPending() {
+        return State.PENDING.equals(mState);
+    }
+
+    public boolean isExecuting() {
+        return State.EXECUTING.equals(mState);
+    }
+
+    public boolean isDone() {
+        return State.FINISHED.equals(mState);
+    }
+
+    public boolean isCanceled() {
+        return mIsCanceled;
+    }
+
+    public boolean isTimeout() {
+        return mIsTimeout;
+    }
+
+    public void markDelivered() {
+        mResultDelivered = true;
+    }
+
+    public boolean hasHadResultDelivered() {
+        return mResultDelivered;
+    }
+
+    public Object getTag() {
+        return mTag;
+    }
+
+    public void setTag(Object tag) {
+        mTag = tag;
+    }
+
+    public void setTaskPool(TaskPool pool) {
+        this.mTaskPool = pool;
+    }
+
+    public long getTimeout() {
+        return mTimeout;
+    }
+
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit == null");
+        }
+        long millis = unit.toMillis(timeout);
+        if (millis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Timeout too large.");
+        }
+        if (millis == 0 && timeout > 0) {
+            throw new IllegalArgumentException("Timeout too small.");
+        }
+        mTimeout = millis;
+    }
+
+    public void resetTimeout() {
+        mTimeout = 0;
+    }
+
+    /**
+     * Give up on the task if it hasn't started {@code delay} from now, when its result would be of
+     * no use anymore. It then leaves the pending queue without taking a worker and fails with a
+     * {@link DeadlineExceededException}; a retry which would start past the deadline fails the
+     * same way. Once running, only {@link #setTimeout(long, TimeUnit)} bounds it. Set it before
+     * the task is added to a pool; deadlines aren't recorded by the journal.
+     */
+    public void setDeadline(long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay < 0");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit == null");
+        }
+        mDeadline = System.nanoTime() + unit.toNanos(delay);
+        mHasDeadline = true;
+    }
+
+    public void resetDeadline() {
+        mHasDeadline = false;
+    }
+
+    public boolean hasDeadline() {
+        return mHasDeadline;
+    }
+
+    /**
+     * The deadline in {@link System#nanoTime()} terms, only meaningful if {@link #hasDeadline()}.
+     */
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    final boolean isPastDeadline(long now) {
+        return mHasDeadline && now - mDeadline >= 0;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    public final int getSequence() {
+        if (!mHasSequence) {
+            throw new IllegalStateException("getSequence called before setSequence");
+        }
+        return mSequence;
+    }
+
+    final void setSequence(int sequence) {
+        mSequence = sequence;
+        mHasSequence = true;
+    }
+
+    final long getAddTime() {
+        return mAddTime;
+    }
+
+    final void setAddTime(long nanos) {
+        mAddTime = nanos;
+    }
+
+    final long getEnqueueTime() {
+        return mEnqueueTime;
+    }
+
+    final void setEnqueueTime(long nanos) {
+        mEnqueueTime = nanos;
+    }
+
+    final long getJournalId() {
+        return mJournalId;
+    }
+
+    final void setJournalId(long journalId) {
+        mJournalId = journalId;
+    }
+
+    final void setPendingSlot(Semaphore slot) {
+        mPendingSlot = slot;
+    }
+
+    /**
+     * Gives back the pending capacity taken by {@link TaskPool#add(Task)}, if any. Returns false
+     * if the task held none, like a task which is queued again for a retry.
+     */
+    final boolean releasePendingSlot() {
+        Semaphore slot = mPendingSlot;
+        if (slot == null) {
+            return false;
+        }
+        mPendingSlot = null;
+        slot.release();
+        return true;
+    }
+
+    final TimingWheel.Entry getDelayEntry() {
+        return mDelayEntry;
+    }
+
+    final void setDelayEntry(TimingWheel.Entry entry) {
+        mDelayEntry = entry;
+    }
+
+    final TaskSchedule getSchedule() {
+        return mSchedule;
+    }
+
+    final void setSchedule(TaskSchedule schedule) {
+        mSchedule = schedule;
+    }
+
+    final Coalescer.Group getCoalesceGroup() {
+        return mCoalesceGroup;
+    }
+
+    final void setCoalesceGroup(Coalescer.Group group) {
+        mCoalesceGroup = group;
+    }
+
+    /**
+     * Whether the task entered the lane of its exclusive key and has to leave it on finish.
+     */
+    final boolean isInLane() {
+        return mInLane;
+    }
+
+    final void setInLane(boolean inLane) {
+        mInLane = inLane;
+    }
+
+    final void setQueuedIn(PendingQueue queue) {
+        mQueuedIn = queue;
+    }
+
+    final boolean isQueuedIn(PendingQueue queue) {
+        return mQueuedIn == queue;
+    }
+
+    /**
+     * Returns true if this call took the task out of the queue, false if it isn't queued there or
+     * someone else took it first.
+     */
+    final boolean takeFrom(PendingQueue queue) {
+        return QUEUED_IN.compareAndSet(this, queue, null);
+    }
+
+    /**
+     * Returns the tasks coalesced into this one, which should get the same result.
+     */
+    final List<Task<?, ?>> detachFollowers() {
+        if (mTaskPool == null) {
+            return Collections.emptyList();
+        }
+        return mTaskPool.detachFollowers(this);
+    }
+
+    /**
+     * Don't run this task before the given one, added to any pool, finished with a result. If it
+     * fails or is canceled, this task fails with a {@link DependencyFailedException} instead.
+     * Dependencies have to be added before this task is, and aren't recorded by the journal.
+     */
+    public void addDependency(Task<?, ?> task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task == null");
+        }
+        if (mDependencies == null) {
+            mDependencies = new ArrayList<Task<?, ?>>(2);
+        }
+        mDependencies.add(task);
+    }
+
+    public List<Task<?, ?>> getDependencies() {
+        if (mDependencies == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(mDependencies);
+    }
+
+    /**
+     * Returns {@link #DEPENDENCY_PENDING} if the dependent will be released when this task
+     * finishes, otherwise whether this task has succeeded or failed already.
+     */
+    final synchronized int addDependent(Task<?, ?> dependent) {
+        if (mDependentsReleased) {
+            return mSucceeded ? DEPENDENCY_SUCCEEDED : DEPENDENCY_FAILED;
+        }
+        if (mDependents == null) {
+            mDependents = new ArrayList<Task<?, ?>>(2);
+        }
+        mDependents.add(dependent);
+        return DEPENDENCY_PENDING;
+    }
+
+    final synchronized List<Task<?, ?>> releaseDependents(boolean succeeded) {
+        mDependentsReleased = true;
+        mSucceeded = succeeded;
+        List<Task<?, ?>> dependents = mDependents;
+        mDependents = null;
+        if (dependents == null) {
+            return Collections.emptyList();
+        }
+        return dependents;
+    }
+
+    /**
+     * Drops a dependent which no longer waits for this task, if it wasn't released already.
+     */
+    final synchronized void removeDependent(Task<?, ?> dependent) {
+        if (mDependents != null) {
+            mDependents.remove(dependent);
+        }
+    }
+
+    final void initUnmetDependencies(int count) {
+        mUnmetDependencies = new AtomicInteger(count);
+    }
+
+    /**
+     * Returns true if that was the last unmet dependency and the task may run now.
+     */
+    final boolean satisfyDependency() {
+        for (; ; ) {
+            int unmet = mUnmetDependencies.get();
+            if (unmet <= 0) {
+                return false;
+            }
+            if (mUnmetDependencies.compareAndSet(unmet, unmet - 1)) {
+                return unmet == 1;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the task was still waiting for its dependencies and has to fail now.
+     */
+    final boolean failDependency() {
+        for (; ; ) {
+            int unmet = mUnmetDependencies.get();
+            if (unmet <= 0) {
+                return false;
+            }
+            if (mUnmetDependencies.compareAndSet(unmet, -1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the task was still waiting for its dependencies and has stopped now, so none
+     * of them will release or fail it. It is taken off the dependents of each.
+     */
+    final boolean leaveDependencies() {
+        if (mUnmetDependencies == null || !failDependency()) {
+            return false;
+        }
+        for (Task<?, ?> dependency : mDependencies) {
+            dependency.removeDependent(this);
+        }
+        return true;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
+
+    @Override
+    public int compareTo(Task another) {
+        Priority left = this.getPriority();
+        Priority right = another.getPriority();
+
+        // High-priority requests are "lesser" so they are sorted to the front.
+        // Equal priorities are sorted by sequence number to provide FIFO ordering.
+        return left == right ? this.mSequence - another.mSequence
+                : right.ordinal() - left.ordinal();
+    }
+
+    /**
+     * Returns null when the task should be retried after {@link #getRetryDelay()} milliseconds.
+     */
+    final Result<O> execute(TaskPool.ExecutionMode mode) throws Throwable {
+        mState = State.EXECUTING;
+        return mode == TaskPool.ExecutionMode.INLINE ? executeInline() : executeNested();
+    }
+
+    private Result<O> executeNested() throws Throwable {
+        for (; ; ) {
+            mIsTimeout = false;
+            try {
+                mFuture = sExecutor.submit(new Callable<O>() {
+                    @Override
+                    public O call() throws Exception {
+                        return onExecute();
+                    }
+                });
+
+                O res = mTimeout > 0 ? mFuture.get(getTimeout(), TimeUnit.MILLISECONDS)
+                        : mFuture.get();
+
+                return Result.success(res);
+            } catch (TimeoutException e) {
+                mIsTimeout = true;
+                recordTimeout();
+                if (retryLater(e)) return null;
+            } catch (ExecutionException e) {
+                if (retryLater(e.getCause())) return null;
+            } finally {
+                cancelFuture();
+            }
+        }
+    }
+
+    private Result<O> executeInline() throws Throwable {
+        for (; ; ) {
+            mIsTimeout = false;
+            Watchdog watchdog = new Watchdog(Thread.currentThread());
+            mWatchdog = watchdog;
+            if (mIsCanceled) {
+                mWatchdog = null;
+                throw new CancellationException();
+            }
+            TaskTimer.Timeout timeout = mTimeout > 0
+                    ? TaskTimer.shared().schedule(watchdog, mTimeout, TimeUnit.MILLISECONDS)
+                    : null;
+
+            O res = null;
+            Throwable error = null;
+            try {
+                res = onExecute();
+            } catch (Throwable e) {
+                error = e;
+            }
+
+            int reason = watchdog.disarm();
+            mWatchdog = null;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+
+            if (reason == Watchdog.CANCELED) {
+                throw new CancellationException();
+            } else if (reason == Watchdog.TIMEOUT) {
+                mIsTimeout = true;
+                recordTimeout();
+                if (retryLater(new TimeoutException())) return null;
+            } else if (error != null) {
+                if (retryLater(error)) return null;
+            } else {
+                return Result.success(res);
+            }
+        }
+    }
+
+    /**
+     * Throws if the task can't retry, otherwise returns whether the next attempt should wait and
+     * be scheduled by the pool instead of running right away.
+     */
+    private boolean retryLater(Throwable e) throws Throwable {
+        long delay = 0;
+        if (mRetryPolicy instanceof BackoffRetryPolicy) {
+            delay = ((BackoffRetryPolicy) mRetryPolicy).nextBackoff(e);
+        } else if (mRetryPolicy != null) {
+            mRetryPolicy.retryOrNot(e);
+        } else {
+            throw e;
+        }
+        TaskPoolMetrics metrics = poolMetrics();
+        if (metrics != null) {
+            metrics.onRetry();
+        }
+        mRetryDelay = delay;
+        return delay > 0 && mTaskPool != null;
+    }
+
+    /**
+     * Returns the metrics of the pool the task was added to, or null if it records none.
+     */
+    final TaskPoolMetrics poolMetrics() {
+        return mTaskPool != null ? mTaskPool.getMetrics() : null;
+    }
+
+    private void recordTimeout() {
+        TaskPoolMetrics metrics = poolMetrics();
+        if (metrics != null) {
+            metrics.onTimeout();
+        }
+    }
+
+    final void markExecuting() {
+        mState = State.EXECUTING;
+    }
+
+    /**
+     * Handles a failed attempt which didn't run on a worker: throws if the task can't retry,
+     * otherwise puts it back into its pool for the next attempt.
+     */
+    final void retryAsync(Throwable error, boolean timeout) throws Throwable {
+        if (timeout) {
+            mIsTimeout = true;
+            recordTimeout();
+        }
+        retryLater(error);
+        scheduleRetry();
+    }
+
+    final long getRetryDelay() {
+        return mRetryDelay;
+    }
+
+    /**
+     * Puts the task back into its pool after the retry delay.
+     */
+    final void scheduleRetry() {
+        mState = State.PENDING;
+        // The next attempt starts afresh, don't let the worker skip it.
+        mIsTimeout = false;
+        mTaskPool.requeue(this, mRetryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Puts the task back into its pool once the rate limits may have a token for it.
+     */
+    final void park(long delayNanos) {
+        mTaskPool.requeue(this, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Puts the task back into its pool with the slot of its priority another task handed over.
+     */
+    final void resumeWithPrioritySlot() {
+        mPrioritySlotHeld = true;
+        mTaskPool.resume(this);
+    }
+
+    /**
+     * Returns whether the task was resumed holding the slot of its priority, once.
+     */
+    final boolean takePrioritySlot() {
+        boolean held = mPrioritySlotHeld;
+        mPrioritySlotHeld = false;
+        return held;
+    }
+
+    private void cancelFuture() {
+        if (mFuture != null && !mFuture.isCancelled()) {
+            mFuture.cancel(true);
+        }
+    }
+
+    void finish() {
+        mState = State.FINISHED;
+        if (mTaskPool != null) {
+            mTaskPool.finish(this);
+            onFinish();
+        }
+    }
+
+    protected void onFinish() {
+        mErrorListener = null;
+    }
+
+    protected abstract O onExecute() throws Exception;
+
+    public void cancel() {
+        mIsCanceled = true;
+        TaskPool pool = mTaskPool;
+        if (pool != null && isPending()) {
+            // Don't leave it waiting for its turn just to be thrown away.
+            pool.removeCanceled(this);
+        }
+        cancelFuture();
+        Watchdog watchdog = mWatchdog;
+        if (watchdog != null) {
+            watchdog.trip(Watchdog.CANCELED);
+        }
+    }
+
+    public abstract String getExclusiveKey();
+
+    /**
+     * Returns the key to cache the result under when the pool has a {@link ResultCache}, or null
+     * to not cache it. Only return a key if the result depends on nothing but the key.
+     */
+    public Object getCacheKey() {
+        return null;
+    }
+
+    protected abstract void deliverResult(O result);
+
+    public void deliverError(Throwable error) {
+        if (mErrorListener != null) {
+            mErrorListener.onError(error);
+        }
+    }
+
+    public enum State {
+        PENDING,
+        EXECUTING,
+        FINISHED,
+    }
+
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH,
+        IMMEDIATE
+    }
+}
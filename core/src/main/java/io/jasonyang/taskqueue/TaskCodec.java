@@ -0,0 +1,19 @@
+package io.jasonyang.taskqueue;
+
+import java.io.IOException;
+
+/**
+ * Converts tasks to bytes and back for a {@link TaskJournal}.
+ * <p>
+ * A codec usually writes the type of the task along with {@link Task#getData()}, so it can
+ * create a task of the same type on decoding. Priority is restored by the journal itself.
+ */
+public interface TaskCodec {
+
+    /**
+     * Return null if the task shouldn't be persisted.
+     */
+    public byte[] encode(Task<?, ?> task) throws IOException;
+
+    public Task<?, ?> decode(byte[] data) throws IOException;
+}
@@ -0,0 +1,611 @@
+package io.jasonyang.taskqueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal which keeps the tasks of a {@link TaskPool} across process deaths and
+ * {@link TaskPool#stop()}.
+ * <p>
+ * The pool records every added task the {@link TaskCodec} can encode, and every finished one. On
+ * {@link TaskPool#start()}, tasks which were added but never finished are decoded and added again,
+ * ordered by priority and then by the order they were first added.
+ * <p>
+ * Records are appended to memory-mapped segment files and carry a CRC32 checksum, so a torn write
+ * at the end of a segment is detected and ignored. Segments are forced to disk by a thread of the
+ * journal, each force covering every record appended since the previous one. By default
+ * {@link TaskPool#add(Task)} returns only once the record of the task is forced, so the cost of a
+ * force is shared by the writers arriving while it runs. With a sync delay, it returns right
+ * away and the records are forced at most that delay later, in one go: a single producer doesn't
+ * wait for the disk, but a crash may lose the tasks added during the last delay. A finished
+ * record isn't waited for, losing one in a crash only runs the task once more.
+ * <p>
+ * Once enough segments have been filled, the records of unfinished tasks are copied into new
+ * segments and the older segments are deleted. Filled segments are forced, and compacted, on
+ * threads of the journal too, so neither holds up {@link TaskPool#add(Task)}.
+ */
+public class TaskJournal {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int COMPACT_THRESHOLD = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_FINISH = 2;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TaskJournal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final File mDirectory;
+    private final TaskCodec mCodec;
+    private final int mSegmentSize;
+    private final long mSyncDelayNanos;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Object mLock = new Object();
+    // The ADD records of unfinished tasks, kept for compaction.
+    private final Map<Long, byte[]> mLive = new HashMap<Long, byte[]>();
+    private long mLiveBytes;
+    private final CRC32 mCrc = new CRC32();
+    private long mLastId;
+    private int mFirstSegment;
+    private int mCurrentSegment;
+    private boolean mCompacting;
+    private MappedByteBuffer mBuffer;
+    // Records are numbered in the order they're appended, every one up to mSynced is on disk.
+    private long mAppended;
+    private long mSynced;
+    private boolean mFlushScheduled;
+    // Segments rolled over, forced and unmapped by the next flush.
+    private final List<MappedByteBuffer> mRetired = new ArrayList<MappedByteBuffer>();
+    // One thread each, so a long compaction doesn't hold up forces. Only set while open.
+    private ScheduledExecutorService mFlusher;
+    private ExecutorService mCompactor;
+    private volatile boolean mOpen;
+
+    public TaskJournal(File directory, TaskCodec codec) {
+        this(directory, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TaskJournal(File directory, TaskCodec codec, int segmentSize) {
+        this(directory, codec, segmentSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param syncDelay how long a record may wait to be forced to disk, or 0 to have
+     *                  {@link TaskPool#add(Task)} wait until the record of its task is.
+     */
+    public TaskJournal(File directory, TaskCodec codec, int segmentSize, long syncDelay,
+                       TimeUnit unit) {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small");
+        }
+        if (syncDelay < 0) {
+            throw new IllegalArgumentException("syncDelay < 0");
+        }
+        mDirectory = directory;
+        mCodec = codec;
+        mSegmentSize = segmentSize;
+        mSyncDelayNanos = unit.toNanos(syncDelay);
+    }
+
+    /**
+     * Reads the journal and returns the unfinished tasks in the order they should be added again.
+     */
+    List<Task<?, ?>> open() throws IOException {
+        close();
+        synchronized (mLock) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+
+            int[] segments = listSegments();
+            for (int segment : segments) {
+                readSegment(segment);
+            }
+            mFirstSegment = segments.length > 0 ? segments[0] : 0;
+            mCurrentSegment = segments.length > 0 ? segments[segments.length - 1] : 0;
+            mFlusher = new ScheduledThreadPoolExecutor(1, sThreadFactory);
+            mCompactor = Executors.newSingleThreadExecutor(sThreadFactory);
+            mOpen = true;
+            roll();
+
+            List<Task<?, ?>> tasks = new ArrayList<Task<?, ?>>(mLive.size());
+            for (Map.Entry<Long, byte[]> entry : new ArrayList<Map.Entry<Long, byte[]>>(
+                    mLive.entrySet())) {
+                Task<?, ?> task = decode(entry.getKey(), entry.getValue());
+                if (task != null) {
+                    tasks.add(task);
+                } else {
+                    // It can't ever be replayed, don't keep it around.
+                    finish(entry.getKey());
+                }
+            }
+            Collections.sort(tasks, new Comparator<Task<?, ?>>() {
+                @Override
+                public int compare(Task<?, ?> lhs, Task<?, ?> rhs) {
+                    int priority = rhs.getPriority().ordinal() - lhs.getPriority().ordinal();
+                    return priority != 0 ? priority
+                            : lhs.getJournalId() < rhs.getJournalId() ? -1
+                            : lhs.getJournalId() == rhs.getJournalId() ? 0 : 1;
+                }
+            });
+            return tasks;
+        }
+    }
+
+    void close() {
+        ExecutorService flusher;
+        ExecutorService compactor;
+        synchronized (mLock) {
+            mOpen = false;
+            flusher = mFlusher;
+            compactor = mCompactor;
+            mFlusher = null;
+            mCompactor = null;
+            // Writers waiting for a force return, the rest is forced here.
+            mLock.notifyAll();
+        }
+        // Let a running force or compaction finish before the segments are unmapped.
+        shutdown(flusher);
+        shutdown(compactor);
+        synchronized (mLock) {
+            for (MappedByteBuffer retired : mRetired) {
+                retired.force();
+                unmap(retired);
+            }
+            mRetired.clear();
+            if (mBuffer != null) {
+                mBuffer.force();
+                unmap(mBuffer);
+                mBuffer = null;
+            }
+            mLive.clear();
+            mLiveBytes = 0;
+            mAppended = 0;
+            mSynced = 0;
+            mFlushScheduled = false;
+            mCompacting = false;
+        }
+    }
+
+    void recordAdd(Task<?, ?> task) {
+        if (!mOpen || task.getJournalId() != 0) {
+            return;
+        }
+        byte[] data;
+        try {
+            data = mCodec.encode(task);
+        } catch (IOException e) {
+            data = null;
+        }
+        if (data == null) {
+            return;
+        }
+
+        synchronized (mLock) {
+            if (!mOpen) {
+                return;
+            }
+            long id = mLastId + 1;
+            ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + data.length);
+            body.put(TYPE_ADD).putLong(id).put((byte) task.getPriority().ordinal()).put(data);
+            try {
+                if (!append(body.array())) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Keep running the task, it just won't survive a restart.
+                return;
+            }
+            mLastId = id;
+            putLive(id, body.array());
+            task.setJournalId(id);
+            scheduleFlush();
+            if (mSyncDelayNanos == 0) {
+                awaitSynced(mAppended);
+            }
+        }
+    }
+
+    void recordFinish(Task<?, ?> task) {
+        long id = task.getJournalId();
+        if (!mOpen || id == 0) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mOpen && mLive.containsKey(id)) {
+                finish(id);
+            }
+        }
+    }
+
+    private void finish(long id) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8);
+        body.put(TYPE_FINISH).putLong(id);
+        try {
+            append(body.array());
+            removeLive(id);
+        } catch (IOException e) {
+            // The task will be replayed once more.
+        }
+    }
+
+    private void putLive(long id, byte[] body) {
+        byte[] old = mLive.put(id, body);
+        mLiveBytes += RECORD_HEADER_SIZE + body.length
+                - (old != null ? RECORD_HEADER_SIZE + old.length : 0);
+    }
+
+    private void removeLive(long id) {
+        byte[] old = mLive.remove(id);
+        if (old != null) {
+            mLiveBytes -= RECORD_HEADER_SIZE + old.length;
+        }
+    }
+
+    private Task<?, ?> decode(long id, byte[] body) {
+        Task.Priority[] priorities = Task.Priority.values();
+        int priority = body[9];
+        try {
+            Task<?, ?> task = mCodec.decode(Arrays.copyOfRange(body, 10, body.length));
+            if (task == null || priority < 0 || priority >= priorities.length) {
+                return null;
+            }
+            task.setPriority(priorities[priority]);
+            task.setJournalId(id);
+            return task;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private boolean append(byte[] body) throws IOException {
+        int size = RECORD_HEADER_SIZE + body.length;
+        if (size > mSegmentSize) {
+            return false;
+        }
+        if (mBuffer == null || mBuffer.remaining() < size) {
+            // No segment if mapping the last one failed.
+            roll();
+        }
+        mCrc.reset();
+        mCrc.update(body, 0, body.length);
+        mBuffer.putInt(body.length).putInt((int) mCrc.getValue()).put(body);
+        mAppended++;
+        return true;
+    }
+
+    /**
+     * Waits until every record up to the given one is on disk, or the journal is closed, which
+     * forces whatever is left. Called holding the lock.
+     */
+    private void awaitSynced(long record) {
+        boolean interrupted = false;
+        while (mOpen && mSynced < record) {
+            try {
+                mLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Has the flusher force what was appended once the sync delay passed, unless a force is due
+     * already. Called holding the lock.
+     */
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mFlusher.schedule(mFlush, mSyncDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Forces the rolled over segments and the current one on the flusher. Records appended
+     * meanwhile are left to the next flush, which is scheduled as they are.
+     */
+    private void flush() {
+        List<MappedByteBuffer> retired;
+        MappedByteBuffer buffer;
+        long target;
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            if (!mOpen) {
+                // Closing forces whatever is left.
+                return;
+            }
+            retired = new ArrayList<MappedByteBuffer>(mRetired);
+            mRetired.clear();
+            buffer = mBuffer;
+            target = mAppended;
+        }
+        boolean forced = false;
+        try {
+            // Outside the lock, so writers keep appending meanwhile. The current segment can only
+            // be rolled over, not unmapped, until the flusher gets to the next flush.
+            for (MappedByteBuffer segment : retired) {
+                segment.force();
+            }
+            if (buffer != null) {
+                buffer.force();
+            }
+            forced = true;
+        } finally {
+            synchronized (mLock) {
+                if (forced) {
+                    for (MappedByteBuffer segment : retired) {
+                        unmap(segment);
+                    }
+                    mSynced = Math.max(mSynced, target);
+                    mLock.notifyAll();
+                } else {
+                    // Try again, writers are still waiting for these records.
+                    mRetired.addAll(0, retired);
+                    if (mOpen) {
+                        scheduleFlush();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment. The filled one is left to the flusher, and once enough of the journal
+     * is finished tasks, the compactor copies the records of the unfinished ones into segments
+     * numbered right before the new one and deletes the older segments.
+     */
+    private void roll() throws IOException {
+        if (mBuffer != null) {
+            mRetired.add(mBuffer);
+            mBuffer = null;
+            scheduleFlush();
+        }
+        int next = mCurrentSegment + 1;
+        // Compact once at least half of the journal is finished tasks.
+        int segments = next - mFirstSegment;
+        long liveSegments = (mLiveBytes + mSegmentSize - 1) / mSegmentSize;
+        if (!mCompacting && segments >= Math.max(COMPACT_THRESHOLD, 2 * liveSegments + 1)) {
+            // Records don't straddle segments, but any two segments in a row hold more than one
+            // segment of them, so this many numbers leave room for all live records.
+            int reserved = (int) (2 * mLiveBytes / mSegmentSize) + 2;
+            startCompaction(next, next + reserved);
+            next += reserved;
+        }
+        mCurrentSegment = next;
+        mBuffer = map(next);
+    }
+
+    /**
+     * Has the compactor copy the live records into the segments from {@code first} to before
+     * {@code end}, and then delete the segments before them. Called holding the lock.
+     */
+    private void startCompaction(final int first, final int end) {
+        mCompacting = true;
+        final List<byte[]> live = new ArrayList<byte[]>(mLive.values());
+        final int from = mFirstSegment;
+        mCompactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean compacted = false;
+                try {
+                    compact(live, first, end, from);
+                    compacted = true;
+                } catch (IOException e) {
+                    // Keep the old segments, a later roll tries again.
+                } finally {
+                    synchronized (mLock) {
+                        if (compacted) {
+                            mFirstSegment = first;
+                        }
+                        mCompacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the compactor. Appends meanwhile go to segments numbered after {@code end}, and
+     * finished records of the copied tasks with them, so a replay sees those last.
+     */
+    private void compact(List<byte[]> live, int first, int end, int from) throws IOException {
+        CRC32 crc = new CRC32();
+        int segment = first;
+        MappedByteBuffer buffer = map(segment);
+        try {
+            for (byte[] body : live) {
+                if (buffer.remaining() < RECORD_HEADER_SIZE + body.length) {
+                    buffer.force();
+                    unmap(buffer);
+                    buffer = null;
+                    if (++segment >= end) {
+                        throw new IOException("No room to compact into");
+                    }
+                    buffer = map(segment);
+                }
+                crc.reset();
+                crc.update(body, 0, body.length);
+                buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+            }
+            buffer.force();
+        } finally {
+            if (buffer != null) {
+                unmap(buffer);
+            }
+        }
+        for (int old = from; old < first; old++) {
+            File file = segmentFile(old);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can't delete " + file);
+            }
+        }
+    }
+
+    private void readSegment(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "r");
+        MappedByteBuffer buffer = null;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 9 || length > buffer.remaining()) {
+                    // The end of the segment, or a torn write.
+                    break;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                long id = ByteBuffer.wrap(body, 1, 8).getLong();
+                mLastId = Math.max(mLastId, id);
+                if (body[0] == TYPE_ADD && length > 9) {
+                    putLive(id, body);
+                } else if (body[0] == TYPE_FINISH) {
+                    removeLive(id);
+                }
+            }
+        } finally {
+            if (buffer != null) {
+                unmap(buffer);
+            }
+            file.close();
+        }
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+        try {
+            file.setLength(mSegmentSize);
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            file.close();
+        }
+    }
+
+    private int[] listSegments() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                segments[count++] = Integer.parseInt(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                // Not one of ours.
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDirectory, String.format(Locale.US, "%010d", segment) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Releases the mapping of a segment right away instead of whenever the buffer is collected, so
+     * a compacted segment's file can be deleted and its address space is given back. The buffer
+     * must not be used afterwards. Where none of the ways to do that is available, the mapping is
+     * left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later.
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception e) {
+            // Not there, try the cleaner of the buffer itself.
+        }
+        try {
+            // Java 8 and earlier, and Android.
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // Left to the garbage collector.
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * A FIFO list of tasks linked through fields of the tasks themselves, so any task can be unlinked
+ * in O(1) without searching for it, and adding a task allocates nothing. A task is in at most one
+ * list at a time. Not thread safe, the owner of the list guards it.
+ */
+final class TaskList {
+
+    private Task<?, ?> mHead;
+    private Task<?, ?> mTail;
+    private int mSize;
+
+    void addLast(Task<?, ?> task) {
+        if (task.mList != null) {
+            throw new IllegalStateException("Task is in a list already");
+        }
+        task.mList = this;
+        task.mListPrev = mTail;
+        task.mListNext = null;
+        if (mTail != null) {
+            mTail.mListNext = task;
+        } else {
+            mHead = task;
+        }
+        mTail = task;
+        mSize++;
+    }
+
+    Task<?, ?> peekFirst() {
+        return mHead;
+    }
+
+    Task<?, ?> peekLast() {
+        return mTail;
+    }
+
+    Task<?, ?> pollFirst() {
+        Task<?, ?> task = mHead;
+        if (task != null) {
+            unlink(task);
+        }
+        return task;
+    }
+
+    Task<?, ?> pollLast() {
+        Task<?, ?> task = mTail;
+        if (task != null) {
+            unlink(task);
+        }
+        return task;
+    }
+
+    /**
+     * Returns false if the task isn't in this list.
+     */
+    boolean remove(Task<?, ?> task) {
+        if (task.mList != this) {
+            return false;
+        }
+        unlink(task);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        while (mHead != null) {
+            unlink(mHead);
+        }
+    }
+
+    private void unlink(Task<?, ?> task) {
+        Task<?, ?> prev = task.mListPrev;
+        Task<?, ?> next = task.mListNext;
+        if (prev != null) {
+            prev.mListNext = next;
+        } else {
+            mHead = next;
+        }
+        if (next != null) {
+            next.mListPrev = prev;
+        } else {
+            mTail = prev;
+        }
+        task.mList = null;
+        task.mListPrev = null;
+        task.mListNext = null;
+        mSize--;
+    }
+}
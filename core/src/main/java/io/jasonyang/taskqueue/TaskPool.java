@@ -0,0 +1,1187 @@
+package io.jasonyang.taskqueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by jasonyang on 2015/4/17.
+ */
+public class TaskPool {
+
+    private final AtomicInteger mSequenceGenerator = new AtomicInteger();
+    private final TaskRegistry mCurrentTasks = new TaskRegistry();
+    private final PendingQueue mPendingQueue;
+    private final ExclusiveLanes mExclusiveLanes = new ExclusiveLanes();
+    private final ResultDelivery mDelivery;
+    private final ExecutionMode mExecutionMode;
+    private final SchedulingMode mSchedulingMode;
+    private int mMaxConcurrency;
+    private final boolean mVirtualThreads;
+    private final int[] mPriorityConcurrency;
+    private final int mPendingCapacity;
+    private final OverflowPolicy mOverflowPolicy;
+    private final int mDispatcherCount;
+    private final TaskJournal mJournal;
+    private final Platform mPlatform;
+    private final TaskPoolMetrics mMetrics;
+    private final long mAgingIntervalNanos;
+    private final int mMaxAgingBoost;
+    private final Coalescer mCoalescer;
+    private final ResultCache mResultCache;
+    private final RateLimiter mRateLimiter;
+    private final Batcher mBatcher = new Batcher(this);
+    private final ExpiryIndex mExpiryIndex = new ExpiryIndex(this);
+    private final TimingWheel mTimingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS);
+    // Copied on write, so listeners are called without holding a lock on the submit path.
+    private final List<TaskPoolListener> mTaskPoolListeners
+            = new CopyOnWriteArrayList<TaskPoolListener>();
+    private Dispatcher[] mDispatchers;
+    private ExecutorService mTaskExecutor;
+    private Semaphore mPendingSlots;
+    // Kept across reconfigure, so tasks still running on the old limit count against the new one.
+    private WorkerSlots mWorkerSlots;
+    // Made afresh on start, so workers left over from the last run can't hand out its slots.
+    private volatile PriorityLimits mPriorityLimits;
+    private ThreadPoolExecutor mResizableExecutor;
+    private volatile boolean mDraining;
+    private final Object mIdleLock = new Object();
+    private volatile boolean isRunning = false;
+
+    public TaskPool(ResultDelivery delivery) {
+        this(new Builder(delivery));
+    }
+
+    public TaskPool(ResultDelivery delivery, ExecutionMode mode) {
+        this(new Builder(delivery).setExecutionMode(mode));
+    }
+
+    protected TaskPool(Builder builder) {
+        mDelivery = builder.mDelivery;
+        // A virtual thread is cheap to block, so the task runs on it and a timeout interrupts it.
+        mExecutionMode = builder.mVirtualThreads ? ExecutionMode.INLINE : builder.mExecutionMode;
+        mVirtualThreads = builder.mVirtualThreads;
+        mSchedulingMode = builder.mSchedulingMode;
+        mPriorityConcurrency = builder.mPriorityConcurrency.clone();
+        mMaxConcurrency = builder.mMaxConcurrency;
+        mPendingCapacity = builder.mPendingCapacity;
+        mOverflowPolicy = builder.mOverflowPolicy;
+        mDispatcherCount = builder.mDispatcherCount;
+        mJournal = builder.mJournal;
+        mPlatform = builder.mPlatform;
+        mMetrics = builder.mMetricsEnabled ? new TaskPoolMetrics(builder.mMaxExclusiveKeyMetrics)
+                : null;
+        mCoalescer = builder.mCoalescingEnabled ? new Coalescer() : null;
+        mResultCache = builder.mResultCache;
+        mRateLimiter = builder.createRateLimiter();
+        mAgingIntervalNanos = builder.mAgingIntervalNanos;
+        mMaxAgingBoost = builder.mMaxAgingBoost;
+        // Deadlines only mean something in one global order, so dispatchers share a single queue.
+        if (mDispatcherCount > 1 && mSchedulingMode == SchedulingMode.PRIORITY) {
+            PendingQueue[] shards = new PendingQueue[mDispatcherCount];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = createPendingQueue();
+            }
+            mPendingQueue = new ShardedPendingQueue(shards, builder.mStealTolerance);
+        } else {
+            mPendingQueue = createPendingQueue();
+        }
+    }
+
+    private PendingQueue createPendingQueue() {
+        if (mSchedulingMode == SchedulingMode.EARLIEST_DEADLINE_FIRST) {
+            return new DeadlinePendingQueue();
+        }
+        if (mAgingIntervalNanos > 0) {
+            return new AgingPendingQueue(mAgingIntervalNanos, mMaxAgingBoost);
+        }
+        return new LanePendingQueue();
+    }
+
+    public synchronized void start() {
+        stop();
+
+        try {
+            mDraining = false;
+            mResizableExecutor = null;
+            mTaskExecutor = createExecutor();
+            mPendingSlots = mPendingCapacity > 0 ? new Semaphore(mPendingCapacity) : null;
+            mPriorityLimits = PriorityLimits.create(mPriorityConcurrency);
+            mWorkerSlots = mMaxConcurrency > 0 ? new WorkerSlots(mMaxConcurrency) : null;
+            startDispatchers();
+            isRunning = true;
+
+            if (mJournal != null) {
+                replay();
+            }
+        } catch (Exception e) {
+            stop();
+        }
+    }
+
+    private void startDispatchers() {
+        mDispatchers = new Dispatcher[mDispatcherCount];
+        for (int i = 0; i < mDispatcherCount; i++) {
+            PendingQueue queue = mPendingQueue instanceof ShardedPendingQueue
+                    ? ((ShardedPendingQueue) mPendingQueue).shard(i) : mPendingQueue;
+            mDispatchers[i] = new Dispatcher(queue, mTaskExecutor, mDelivery, mExecutionMode,
+                    mWorkerSlots, mPriorityLimits, mPlatform, mMetrics, mResultCache,
+                    mRateLimiter);
+            mDispatchers[i].start();
+        }
+    }
+
+    private void quitDispatchers(boolean join) {
+        if (mDispatchers == null) {
+            return;
+        }
+        for (Dispatcher dispatcher : mDispatchers) {
+            if (dispatcher != null) {
+                dispatcher.quit();
+            }
+        }
+        if (join) {
+            for (Dispatcher dispatcher : mDispatchers) {
+                try {
+                    dispatcher.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        mDispatchers = null;
+    }
+
+    /**
+     * Changes the max concurrency of a running pool without losing its tasks or restarting their
+     * sequence. The default bounded executor is resized in place, any other one is replaced by a
+     * new {@link #createExecutor()} and tasks already running finish on the old one. Running tasks
+     * keep counting against the new limit and the limits per priority until they finish, except
+     * when a pool without a limit gets one: the tasks it is running then weren't counted, so the
+     * new limit may be exceeded until they have finished.
+     */
+    public synchronized void reconfigure(int maxConcurrency) {
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("maxConcurrency < 0");
+        }
+        if (!isRunning) {
+            mMaxConcurrency = maxConcurrency;
+            return;
+        }
+        // Nothing is lost while no dispatcher runs, tasks just stay in the pending queue.
+        quitDispatchers(true);
+        if (maxConcurrency == 0) {
+            mWorkerSlots = null;
+        } else if (mWorkerSlots == null) {
+            mWorkerSlots = new WorkerSlots(maxConcurrency);
+        } else {
+            mWorkerSlots.resize(mMaxConcurrency, maxConcurrency);
+        }
+        ThreadPoolExecutor resizable = mResizableExecutor;
+        if (resizable != null && resizable == mTaskExecutor && maxConcurrency > 0) {
+            if (maxConcurrency > resizable.getMaximumPoolSize()) {
+                resizable.setMaximumPoolSize(maxConcurrency);
+                resizable.setCorePoolSize(maxConcurrency);
+            } else {
+                resizable.setCorePoolSize(maxConcurrency);
+                resizable.setMaximumPoolSize(maxConcurrency);
+            }
+            mMaxConcurrency = maxConcurrency;
+        } else {
+            ExecutorService old = mTaskExecutor;
+            mMaxConcurrency = maxConcurrency;
+            mResizableExecutor = null;
+            mTaskExecutor = createExecutor();
+            if (old != null) {
+                old.shutdown();
+            }
+        }
+        startDispatchers();
+    }
+
+    /**
+     * Stops accepting tasks and waits up to the timeout for the current ones to finish, then
+     * stops the pool. Pending tasks are canceled first unless {@code runPending} is set, tasks
+     * already running always get to finish. Returns true if every task finished in time.
+     */
+    public boolean drain(long timeout, TimeUnit unit, boolean runPending) {
+        synchronized (this) {
+            if (!isRunning) {
+                return mCurrentTasks.size() == 0;
+            }
+            mDraining = true;
+        }
+        if (!runPending) {
+            for (Task<?, ?> task : mCurrentTasks.all()) {
+                if (task.isPending()) {
+                    task.cancel();
+                }
+            }
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained;
+        synchronized (mIdleLock) {
+            try {
+                long remaining;
+                while (mCurrentTasks.size() > 0
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(mIdleLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drained = mCurrentTasks.size() == 0;
+        }
+        stop();
+        return drained;
+    }
+
+    private void replay() {
+        List<Task<?, ?>> tasks;
+        try {
+            tasks = mJournal.open();
+        } catch (IOException e) {
+            // Run without persistence rather than not at all.
+            return;
+        }
+        for (Task<?, ?> task : tasks) {
+            add(task);
+        }
+    }
+
+    /**
+     * Default using a virtual thread per task when {@link Builder#setVirtualThreads(boolean)} is
+     * set and the platform has them, {@link Executors#newCachedThreadPool()}, or a fixed number of
+     * threads when {@link Builder#setMaxConcurrency(int)} is set.
+     */
+    protected ExecutorService createExecutor() {
+        if (mVirtualThreads) {
+            ExecutorService executor = mPlatform.newVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+        }
+        if (mMaxConcurrency <= 0) {
+            return Executors.newCachedThreadPool();
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(mMaxConcurrency, mMaxConcurrency,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        mResizableExecutor = executor;
+        return executor;
+    }
+
+    public synchronized void stop() {
+        isRunning = false;
+        quitDispatchers(false);
+        if (mTaskExecutor != null) {
+            mTaskExecutor.shutdownNow();
+        }
+        if (mJournal != null) {
+            mJournal.close();
+        }
+        if (mPendingSlots != null) {
+            // Wake up producers blocked on a full pool, they will see the pool is stopped.
+            mPendingSlots.release(Integer.MAX_VALUE - mPendingCapacity);
+            mPendingSlots = null;
+        }
+
+        mCurrentTasks.clear();
+        mPendingQueue.clear();
+        mExpiryIndex.clear();
+        mTimingWheel.clear();
+        mExclusiveLanes.clear();
+        if (mPriorityLimits != null) {
+            mPriorityLimits.clear();
+        }
+        mBatcher.clear();
+        if (mCoalescer != null) {
+            mCoalescer.clear();
+        }
+        mSequenceGenerator.set(0);
+    }
+
+    public int size() {
+        return mCurrentTasks.size();
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
+    }
+
+    private int getSequenceNumber() {
+        return mSequenceGenerator.incrementAndGet();
+    }
+
+    /**
+     * Return null when the pool is stopped, or when the pending capacity is exhausted and the task
+     * can't be queued according to the {@link OverflowPolicy}.
+     */
+    public <I, O> Task<I, O> add(Task<I, O> task) {
+        return add(task, 0);
+    }
+
+    /**
+     * Like {@link #add(Task)}, but the task only enters the pending queue once the delay passed.
+     * It's in the pool meanwhile, so it can be found and canceled like any other task, but it
+     * takes no pending capacity. The journal replays it without the delay.
+     */
+    public <I, O> Task<I, O> addDelayed(Task<I, O> task, long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay < 0");
+        }
+        return add(task, unit.toNanos(delay));
+    }
+
+    private <I, O> Task<I, O> add(Task<I, O> task, long delayNanos) {
+        if (!isRunning || mDraining) return null;
+
+        // Tag the task as belonging to this pool and add it to the set of current tasks.
+        task.setTaskPool(this);
+        task.setSequence(getSequenceNumber());
+        if (delayNanos == 0 && !acquirePendingSlot(task)) return null;
+        if (!isRunning || mDraining) {
+            task.releasePendingSlot();
+            return null;
+        }
+        if (mMetrics != null) {
+            task.setAddTime(System.nanoTime());
+            mMetrics.onSubmit(task);
+        }
+        int size = mCurrentTasks.add(task);
+        if (mJournal != null) {
+            mJournal.recordAdd(task);
+        }
+        if (task.hasDeadline()) {
+            mExpiryIndex.add(task);
+        }
+        for (TaskPoolListener<I, O> listener : mTaskPoolListeners) {
+            listener.onAdd(task, size);
+        }
+
+        if (delayNanos > 0) {
+            DelayedEntry entry = new DelayedEntry(task);
+            task.setDelayEntry(entry);
+            mTimingWheel.schedule(entry, delayNanos, TimeUnit.NANOSECONDS);
+            return task;
+        }
+        release(task);
+        return task;
+    }
+
+    /**
+     * Adds a task made by the factory every period, starting after the initial delay, as long as
+     * the pool runs or until the schedule is canceled. The factory is called off the timer
+     * thread, see {@link TaskSchedule}.
+     */
+    public TaskSchedule scheduleAtFixedRate(TaskFactory factory, long initialDelay, long period,
+                                            TimeUnit unit) {
+        return schedule(factory, initialDelay, period, unit, true);
+    }
+
+    /**
+     * Adds a task made by the factory after the initial delay, and again the given delay after
+     * the previous one finished, as long as the pool runs or until the schedule is canceled. The
+     * factory is called off the timer thread, see {@link TaskSchedule}.
+     */
+    public TaskSchedule scheduleWithFixedDelay(TaskFactory factory, long initialDelay, long delay,
+                                               TimeUnit unit) {
+        return schedule(factory, initialDelay, delay, unit, false);
+    }
+
+    private TaskSchedule schedule(TaskFactory factory, long initialDelay, long period,
+                                  TimeUnit unit, boolean fixedRate) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory == null");
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("initialDelay < 0");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period <= 0");
+        }
+        TaskSchedule schedule = new TaskSchedule(this, factory, unit.toNanos(period), fixedRate);
+        schedule.start(unit.toNanos(initialDelay));
+        return schedule;
+    }
+
+    void schedule(TimingWheel.Entry entry, long delayNanos) {
+        if (isRunning) {
+            mTimingWheel.schedule(entry, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void unschedule(TimingWheel.Entry entry) {
+        mTimingWheel.cancel(entry);
+    }
+
+    /**
+     * Unlinks a canceled task from the timing wheel, its dependencies, the pending queue, the lane
+     * of its exclusive key or the limit of its priority, whichever it waits in, and finishes it
+     * right away. A task which is anywhere else, or is taken by a dispatcher meanwhile, is
+     * finished by whoever gets to it next.
+     */
+    void removeCanceled(Task<?, ?> task) {
+        TimingWheel.Entry delay = task.getDelayEntry();
+        if (delay != null && mTimingWheel.cancel(delay)) {
+            task.finish();
+            return;
+        }
+        if (task.leaveDependencies()) {
+            // Its pending capacity is given back by awaitDependencies(), which may still be
+            // registering it with the rest of its dependencies.
+            task.finish();
+            return;
+        }
+        if (mPendingQueue.remove(task)) {
+            task.releasePendingSlot();
+            task.finish();
+            return;
+        }
+        if (task.isInLane() && mExclusiveLanes.remove(task.getExclusiveKey(), task)) {
+            // It never got the key, so it has nothing to hand over when it finishes.
+            task.setInLane(false);
+            task.releasePendingSlot();
+            task.finish();
+            return;
+        }
+        PriorityLimits limits = mPriorityLimits;
+        if (limits != null && limits.remove(task)) {
+            task.finish();
+        }
+    }
+
+    /**
+     * Lets a task which is in the pool go on to its dependencies, or straight to admission.
+     */
+    private void release(Task<?, ?> task) {
+        if (!task.getDependencies().isEmpty() && awaitDependencies(task)) {
+            return;
+        }
+        admit(task);
+    }
+
+    private final class DelayedEntry extends TimingWheel.Entry {
+
+        private final Task<?, ?> mTask;
+
+        DelayedEntry(Task<?, ?> task) {
+            mTask = task;
+        }
+
+        @Override
+        void expire() {
+            if (!isRunning) {
+                return;
+            }
+            if (mTask.isCanceled()) {
+                mTask.finish();
+                return;
+            }
+            release(mTask);
+        }
+    }
+
+    /**
+     * Hands a task, with all of its dependencies met, to the stage which runs or answers it.
+     */
+    private void admit(Task<?, ?> task) {
+        if (mResultCache != null) {
+            Result<?> cached = mResultCache.get(task);
+            if (cached != null) {
+                // Deliver right away, without a trip through the queue and a worker.
+                task.releasePendingSlot();
+                mDelivery.postResult(task, cached);
+                return;
+            }
+        }
+        if (mCoalescer != null && mCoalescer.attach(task)) {
+            // It runs along with the task it was coalesced into, so it takes no pending capacity.
+            task.releasePendingSlot();
+            return;
+        }
+        if (task instanceof BatchTask) {
+            mBatcher.add((BatchTask<?, ?>) task);
+            return;
+        }
+        dispatch(task);
+    }
+
+    /**
+     * Returns true if the task has to wait for, or already failed because of, its dependencies.
+     */
+    private boolean awaitDependencies(Task<?, ?> task) {
+        List<Task<?, ?>> dependencies = task.getDependencies();
+        // One more than needed, so dependencies finishing meanwhile can't release the task early.
+        task.initUnmetDependencies(dependencies.size() + 1);
+        for (Task<?, ?> dependency : dependencies) {
+            int state = dependency.addDependent(task);
+            if (state == Task.DEPENDENCY_SUCCEEDED) {
+                task.satisfyDependency();
+            } else if (state == Task.DEPENDENCY_FAILED) {
+                failDependent(task, dependency);
+            }
+        }
+        if (task.satisfyDependency()) {
+            return false;
+        }
+        // Don't hold up the capacity the dependencies may need themselves.
+        task.releasePendingSlot();
+        return true;
+    }
+
+    private void releaseDependents(Task<?, ?> task) {
+        boolean succeeded = task.hasHadResultDelivered() && !task.isCanceled();
+        for (Task<?, ?> dependent : task.releaseDependents(succeeded)) {
+            if (!succeeded) {
+                failDependent(dependent, task);
+            } else if (dependent.satisfyDependency()) {
+                if (isRunning) {
+                    admit(dependent);
+                } else {
+                    dependent.finish();
+                }
+            }
+        }
+    }
+
+    private void failDependent(Task<?, ?> dependent, Task<?, ?> dependency) {
+        if (dependent.failDependency()) {
+            // Finishing the dependent fails its own dependents in turn.
+            mDelivery.postError(dependent, new DependencyFailedException(dependency));
+        }
+    }
+
+    /**
+     * Queues a sealed batch. Its tasks were added already, the carrier itself is never current.
+     */
+    void dispatchBatch(Batcher.Carrier carrier) {
+        carrier.setTaskPool(this);
+        carrier.setSequence(getSequenceNumber());
+        if (!isRunning) {
+            carrier.finish();
+            return;
+        }
+        enqueue(carrier);
+    }
+
+    /**
+     * Puts a task which is still in flight back into the pending queue after a delay. The task
+     * keeps its exclusive key while it waits.
+     */
+    void requeue(final Task<?, ?> task, long delay, TimeUnit unit) {
+        TaskTimer.shared().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (isRunning) {
+                    enqueue(task);
+                }
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Puts a task which was parked at the limit of its priority back into the pending queue.
+     */
+    void resume(Task<?, ?> task) {
+        if (isRunning) {
+            enqueue(task);
+        }
+    }
+
+    private boolean acquirePendingSlot(Task<?, ?> task) {
+        Semaphore slots = mPendingSlots;
+        if (slots == null) {
+            return true;
+        }
+        switch (mOverflowPolicy) {
+            case BLOCK:
+                try {
+                    slots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                break;
+            case DROP_LOWEST:
+                if (!dropLowestFor(task, slots)) {
+                    return false;
+                }
+                break;
+            case REJECT:
+            default:
+                if (!slots.tryAcquire()) {
+                    return false;
+                }
+        }
+        task.setPendingSlot(slots);
+        return true;
+    }
+
+    /**
+     * Drops queued tasks less important than the given one until a pending slot is free, and
+     * takes it. Only a task which holds a slot is dropped; tasks queued again after they were
+     * admitted, for a retry or a rate limit, hold none and dropping them would make no room.
+     */
+    private boolean dropLowestFor(Task<?, ?> task, Semaphore slots) {
+        List<Task<?, ?>> kept = null;
+        try {
+            while (!slots.tryAcquire()) {
+                Task<?, ?> lowest = mPendingQueue.pollLowest();
+                if (lowest == null) {
+                    return false;
+                }
+                if (rank(lowest, task) <= 0) {
+                    // Nothing queued is less important than the new task.
+                    mPendingQueue.add(lowest);
+                    return false;
+                }
+                if (!lowest.releasePendingSlot()) {
+                    if (kept == null) {
+                        kept = new ArrayList<Task<?, ?>>();
+                    }
+                    kept.add(lowest);
+                    continue;
+                }
+                mDelivery.postError(lowest,
+                        new RejectedExecutionException("Dropped for a higher priority task"));
+            }
+            return true;
+        } finally {
+            if (kept != null) {
+                // They were taken from the back, so put them back in reverse to keep their order.
+                for (int i = kept.size() - 1; i >= 0; i--) {
+                    mPendingQueue.add(kept.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares two tasks in the order the pending queue hands them out.
+     */
+    private int rank(Task<?, ?> task, Task<?, ?> other) {
+        if (mSchedulingMode == SchedulingMode.EARLIEST_DEADLINE_FIRST) {
+            return DeadlinePendingQueue.ORDER.compare(task, other);
+        }
+        return task.compareTo(other);
+    }
+
+    private <I, O> Task<I, O> dispatch(Task<I, O> task) {
+        String exclusiveKey = task.getExclusiveKey();
+        if (isEmpty(exclusiveKey)) {
+            enqueue(task);
+            return task;
+        }
+        // Queue up behind the task in flight with the same exclusive key, if there is one.
+        task.setInLane(true);
+        if (mExclusiveLanes.enter(exclusiveKey, task)) {
+            enqueue(task);
+        }
+        return task;
+    }
+
+    <I, O> void finish(Task<I, O> task) {
+        if (task instanceof Batcher.Carrier) {
+            // Never added itself, its tasks finish on their own.
+            return;
+        }
+        // Remove from the set of requests currently being processed.
+        int size = mCurrentTasks.remove(task);
+        if (task.hasDeadline()) {
+            mExpiryIndex.remove(task);
+        }
+        if (size == 0 && mDraining) {
+            synchronized (mIdleLock) {
+                mIdleLock.notifyAll();
+            }
+        }
+        if (mJournal != null) {
+            mJournal.recordFinish(task);
+        }
+        for (TaskPoolListener<I, O> listener : mTaskPoolListeners) {
+            listener.onRemove(task, size);
+        }
+
+        // Followers and cached results never entered the lane of their key.
+        if (task.isInLane()) {
+            task.setInLane(false);
+            Task<?, ?> next = mExclusiveLanes.leave(task.getExclusiveKey());
+            if (next != null) {
+                enqueue(next);
+            }
+        }
+
+        if (mCoalescer != null) {
+            // Followers still attached didn't get a result, let them run on their own.
+            redispatch(mCoalescer.detach(task));
+        }
+
+        releaseDependents(task);
+
+        TaskSchedule schedule = task.getSchedule();
+        if (schedule != null) {
+            schedule.onFinish(task);
+        }
+    }
+
+    /**
+     * Called by the {@link ExpiryIndex} once the deadline of the task passed. Only a task still in
+     * the pending queue fails right away; one which is waiting anywhere else, for its exclusive
+     * key, a dependency or a retry, fails when a dispatcher takes it.
+     */
+    void expire(Task<?, ?> task) {
+        if (!mPendingQueue.remove(task)) {
+            return;
+        }
+        task.releasePendingSlot();
+        if (mMetrics != null) {
+            mMetrics.onExpired();
+        }
+        mDelivery.postError(task, new DeadlineExceededException());
+    }
+
+    List<Task<?, ?>> detachFollowers(Task<?, ?> primary) {
+        if (mCoalescer == null) {
+            return Collections.emptyList();
+        }
+        return mCoalescer.detach(primary);
+    }
+
+    private void redispatch(List<Task<?, ?>> followers) {
+        for (Task<?, ?> follower : followers) {
+            if (follower.isCanceled() || !isRunning) {
+                follower.finish();
+            } else if (!mCoalescer.attach(follower)) {
+                dispatch(follower);
+            }
+        }
+    }
+
+    private void enqueue(Task<?, ?> task) {
+        if (mMetrics != null) {
+            task.setEnqueueTime(System.nanoTime());
+        }
+        mPendingQueue.add(task);
+    }
+
+    /**
+     * Returns null unless metrics are enabled.
+     */
+    public TaskPoolMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public List<Task<?, ?>> getTasks() {
+        return getTasks(new RequestFilter() {
+            @Override
+            public boolean apply(Task<?, ?> task) {
+                return true;
+            }
+        });
+    }
+
+    public List<Task<?, ?>> getTasks(RequestFilter filter) {
+        List<Task<?, ?>> tasks = new LinkedList<Task<?, ?>>();
+        for (Task<?, ?> task : mCurrentTasks.all()) {
+            if (filter.apply(task)) {
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    public List<Task<?, ?>> getTasksByTag(final Object tag) {
+        return mCurrentTasks.getByTag(tag);
+    }
+
+    public List<Task<?, ?>> getTasksByExclusiveKey(final String key) {
+        return mCurrentTasks.getByExclusiveKey(key);
+    }
+
+    /**
+     * Makes the task of every run of a {@link TaskSchedule}.
+     */
+    public interface TaskFactory {
+
+        Task<?, ?> create();
+    }
+
+    public interface RequestFilter {
+
+        boolean apply(Task<?, ?> task);
+    }
+
+    public void cancelAll() {
+        cancel(new RequestFilter() {
+            @Override
+            public boolean apply(Task<?, ?> task) {
+                return true;
+            }
+        });
+    }
+
+    public void cancel(RequestFilter filter) {
+        for (Task<?, ?> task : mCurrentTasks.all()) {
+            if (filter.apply(task)) {
+                task.cancel();
+            }
+        }
+    }
+
+    public void cancelByTag(final Object tag) {
+        for (Task<?, ?> task : mCurrentTasks.getByTag(tag)) {
+            task.cancel();
+        }
+    }
+
+    public void cancelByExclusiveKey(final String key) {
+        for (Task<?, ?> task : mCurrentTasks.getByExclusiveKey(key)) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * What {@link #add(Task)} does when the pending capacity is exhausted.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Don't queue the new task, {@code add()} returns null.
+         */
+        REJECT,
+        /**
+         * Block the caller of {@code add()} until a pending task is handed to a worker.
+         */
+        BLOCK,
+        /**
+         * Drop the lowest priority task of the pending queue in favor of the new task, or reject
+         * the new task if it has the lowest priority. With
+         * {@link SchedulingMode#EARLIEST_DEADLINE_FIRST}, the task with the latest deadline is
+         * dropped instead, tasks without one counting as the latest. The dropped task receives a
+         * {@link RejectedExecutionException} through {@link Task#deliverError(Throwable)}.
+         */
+        DROP_LOWEST
+    }
+
+    /**
+     * How a worker thread runs {@link Task#onExecute()}.
+     */
+    public enum ExecutionMode {
+        /**
+         * Run on a separate shared executor while the worker waits for the result. Costs two
+         * threads per task.
+         */
+        NESTED,
+        /**
+         * Run directly on the worker thread. Timeouts and cancellation interrupt the worker from
+         * a shared timer thread, so every task costs exactly one thread. {@code onExecute()} must
+         * respond to interrupts for timeouts to take effect.
+         */
+        INLINE
+    }
+
+    /**
+     * The order in which pending tasks are handed to workers.
+     */
+    public enum SchedulingMode {
+        /**
+         * Highest {@link Task.Priority} first, in the order they were added within a priority.
+         */
+        PRIORITY,
+        /**
+         * Earliest {@link Task#getDeadline() deadline} first. Tasks without a deadline run after
+         * all tasks with one, by priority. Priority aging doesn't apply, and multiple dispatchers
+         * share one queue instead of sharding it.
+         */
+        EARLIEST_DEADLINE_FIRST
+    }
+
+    public interface TaskPoolListener<I, O> {
+
+        void onAdd(Task<I, O> task, int size);
+
+        void onRemove(Task<I, O> task, int size);
+    }
+
+    public <I, O> void addTaskListener(TaskPoolListener<I, O> listener) {
+        mTaskPoolListeners.add(listener);
+    }
+
+    public <I, O> void removeTaskListener(TaskPoolListener<I, O> listener) {
+        mTaskPoolListeners.remove(listener);
+    }
+
+    /**
+     * Bounds the tasks handed to workers. Resized without being replaced, so permits held by
+     * running tasks are given back to the new limit.
+     */
+    private static final class WorkerSlots extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        WorkerSlots(int permits) {
+            super(permits);
+        }
+
+        /**
+         * Permits taken away while in use are owed, the next releases pay them back first.
+         */
+        void resize(int from, int to) {
+            if (to > from) {
+                release(to - from);
+            } else if (to < from) {
+                reducePermits(from - to);
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final ResultDelivery mDelivery;
+        private ExecutionMode mExecutionMode = ExecutionMode.NESTED;
+        private SchedulingMode mSchedulingMode = SchedulingMode.PRIORITY;
+        private int mMaxConcurrency = 0;
+        private boolean mVirtualThreads = false;
+        private int[] mPriorityConcurrency = new int[Task.Priority.values().length];
+        private int mPendingCapacity = 0;
+        private OverflowPolicy mOverflowPolicy = OverflowPolicy.REJECT;
+        private int mDispatcherCount = 1;
+        private int mStealTolerance = 0;
+        private TaskJournal mJournal;
+        private Platform mPlatform = Platform.get();
+        private boolean mMetricsEnabled = false;
+        private int mMaxExclusiveKeyMetrics = 0;
+        private boolean mCoalescingEnabled = false;
+        private ResultCache mResultCache;
+        private RateLimiter.Limit mRateLimit;
+        private RateLimiter.Limit[] mPriorityRateLimits
+                = new RateLimiter.Limit[Task.Priority.values().length];
+        private RateLimiter.Limit mExclusiveKeyRateLimit;
+        private Map<String, RateLimiter.Limit> mKeyRateLimits
+                = new HashMap<String, RateLimiter.Limit>();
+        private long mAgingIntervalNanos = 0;
+        private int mMaxAgingBoost = 0;
+
+        public Builder(ResultDelivery delivery) {
+            mDelivery = delivery;
+        }
+
+        public Builder setExecutionMode(ExecutionMode mode) {
+            mExecutionMode = mode;
+            return this;
+        }
+
+        public Builder setSchedulingMode(SchedulingMode mode) {
+            mSchedulingMode = mode;
+            return this;
+        }
+
+        /**
+         * Limit how many tasks execute at the same time, 0 for no limit. Tasks stay ordered in the
+         * pending queue until a worker is free.
+         */
+        public Builder setMaxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 0) {
+                throw new IllegalArgumentException("maxConcurrency < 0");
+            }
+            mMaxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Run every task on a virtual thread of its own where the platform has them, Java 21 and
+         * later, and on the default executor otherwise. Tasks then always run in
+         * {@link ExecutionMode#INLINE}, a timeout or cancel interrupts their thread. Bound them
+         * with {@link #setPriorityConcurrency(Task.Priority, int)} rather than a thread count.
+         */
+        public Builder setVirtualThreads(boolean enabled) {
+            mVirtualThreads = enabled;
+            return this;
+        }
+
+        /**
+         * Limit the tasks of a priority running at the same time, 0 for no limit. A task over the
+         * limit waits without holding a worker, so tasks of other priorities keep running, and
+         * runs once a task of its priority finishes.
+         */
+        public Builder setPriorityConcurrency(Task.Priority priority, int maxConcurrency) {
+            if (maxConcurrency < 0) {
+                throw new IllegalArgumentException("maxConcurrency < 0");
+            }
+            mPriorityConcurrency[priority.ordinal()] = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Limit how many added tasks may wait for a worker, 0 for no limit.
+         */
+        public Builder setPendingCapacity(int capacity, OverflowPolicy policy) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("capacity < 0");
+            }
+            mPendingCapacity = capacity;
+            mOverflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Run several dispatcher threads, each over a shard of the pending queue, for pools whose
+         * submit rate is bound by the single dispatcher. A dispatcher steals from other shards
+         * when their next task outranks its own by more than {@code stealTolerance} priority
+         * levels, so 0 keeps strict priority order while larger values trade order for locality.
+         */
+        public Builder setDispatcherCount(int count, int stealTolerance) {
+            if (count < 1) {
+                throw new IllegalArgumentException("count < 1");
+            }
+            if (stealTolerance < 0) {
+                throw new IllegalArgumentException("stealTolerance < 0");
+            }
+            mDispatcherCount = count;
+            mStealTolerance = stealTolerance;
+            return this;
+        }
+
+        /**
+         * Persist added tasks in a journal, and add the unfinished ones again on
+         * {@link TaskPool#start()}.
+         */
+        public Builder setJournal(TaskJournal journal) {
+            mJournal = journal;
+            return this;
+        }
+
+        /**
+         * Default using {@link Platform#get()}.
+         */
+        public Builder setPlatform(Platform platform) {
+            mPlatform = platform;
+            return this;
+        }
+
+        /**
+         * Record counters and latency histograms, see {@link TaskPool#getMetrics()}.
+         */
+        public Builder setMetricsEnabled(boolean enabled) {
+            return setMetricsEnabled(enabled, 0);
+        }
+
+        /**
+         * Like {@link #setMetricsEnabled(boolean)}, and also count tasks per exclusive key for the
+         * {@code maxExclusiveKeys} most recently used keys, 0 for none.
+         */
+        public Builder setMetricsEnabled(boolean enabled, int maxExclusiveKeys) {
+            if (maxExclusiveKeys < 0) {
+                throw new IllegalArgumentException("maxExclusiveKeys < 0");
+            }
+            mMetricsEnabled = enabled;
+            mMaxExclusiveKeyMetrics = maxExclusiveKeys;
+            return this;
+        }
+
+        /**
+         * Let a task added while an equal one is pending or running, that is one of the same class
+         * with the same exclusive key and equal data, wait for that one and get its result or
+         * error instead of running again. Tasks with null data are never coalesced.
+         */
+        public Builder setCoalescingEnabled(boolean enabled) {
+            mCoalescingEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Deliver cached results to tasks with a {@link Task#getCacheKey()} instead of running
+         * them. The cache may be shared between pools.
+         */
+        public Builder setResultCache(ResultCache cache) {
+            mResultCache = cache;
+            return this;
+        }
+
+        /**
+         * Start at most {@code permitsPerSecond} tasks a second, and at most {@code burst} at once
+         * after a quiet period. Tasks over the limit wait on the pool timer, not on a thread.
+         */
+        public Builder setRateLimit(double permitsPerSecond, int burst) {
+            mRateLimit = new RateLimiter.Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Like {@link #setRateLimit(double, int)}, for the tasks of one priority.
+         */
+        public Builder setRateLimit(Task.Priority priority, double permitsPerSecond, int burst) {
+            mPriorityRateLimits[priority.ordinal()]
+                    = new RateLimiter.Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Like {@link #setRateLimit(double, int)}, for the tasks of one exclusive key.
+         */
+        public Builder setRateLimit(String exclusiveKey, double permitsPerSecond, int burst) {
+            if (isEmpty(exclusiveKey)) {
+                throw new IllegalArgumentException("exclusiveKey is empty");
+            }
+            mKeyRateLimits.put(exclusiveKey, new RateLimiter.Limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Like {@link #setRateLimit(double, int)}, separately for every exclusive key without a
+         * limit of its own.
+         */
+        public Builder setExclusiveKeyRateLimit(double permitsPerSecond, int burst) {
+            mExclusiveKeyRateLimit = new RateLimiter.Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        private RateLimiter createRateLimiter() {
+            boolean limited = mRateLimit != null || mExclusiveKeyRateLimit != null
+                    || !mKeyRateLimits.isEmpty();
+            for (RateLimiter.Limit limit : mPriorityRateLimits) {
+                limited |= limit != null;
+            }
+            if (!limited) {
+                return null;
+            }
+            return new RateLimiter(mRateLimit, mPriorityRateLimits, mExclusiveKeyRateLimit,
+                    mKeyRateLimits);
+        }
+
+        /**
+         * Raise the priority of pending tasks by one level for every {@code interval} they wait,
+         * by at most {@code maxBoost} levels and never past IMMEDIATE, so LOW tasks still run under
+         * a steady load of higher priority ones. An interval of 0 turns aging off.
+         */
+        public Builder setPriorityAging(long interval, TimeUnit unit, int maxBoost) {
+            if (interval < 0) {
+                throw new IllegalArgumentException("interval < 0");
+            }
+            if (maxBoost < 0) {
+                throw new IllegalArgumentException("maxBoost < 0");
+            }
+            mAgingIntervalNanos = unit.toNanos(interval);
+            mMaxAgingBoost = maxBoost;
+            return this;
+        }
+
+        public TaskPool build() {
+            return new TaskPool(this);
+        }
+    }
+}
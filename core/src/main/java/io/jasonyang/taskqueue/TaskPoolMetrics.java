@@ -0,0 +1,270 @@
+package io.jasonyang.taskqueue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters and latency histograms of a {@link TaskPool}, enabled by
+ * {@link TaskPool.Builder#setMetricsEnabled(boolean)}.
+ * <p>
+ * Recording only touches striped counters and histogram buckets, and allocates nothing. Counters
+ * per exclusive key are opt-in, see {@link TaskPool.Builder#setMetricsEnabled(boolean, int)}: they
+ * take a lock and allocate the first time a key is seen, and only the most recently used keys are
+ * kept, so keys made per request can't grow them without bound. When metrics are disabled the pool
+ * doesn't record anything at all, not even timestamps.
+ */
+public final class TaskPoolMetrics {
+
+    private final StripedCounter[] mSubmitted = new StripedCounter[Task.Priority.values().length];
+    private final StripedCounter mSucceeded = new StripedCounter();
+    private final StripedCounter mFailed = new StripedCounter();
+    private final StripedCounter mRetries = new StripedCounter();
+    private final StripedCounter mTimeouts = new StripedCounter();
+    private final StripedCounter mThrottled = new StripedCounter();
+    private final StripedCounter mExpired = new StripedCounter();
+    // Null unless counters per exclusive key are enabled, guarded by itself.
+    private final LinkedHashMap<String, KeyCounters> mByExclusiveKey;
+    private final int mMaxExclusiveKeys;
+    private final Histogram mQueueWait = new Histogram();
+    private final Histogram mExecution = new Histogram();
+    private final Histogram mLatency = new Histogram();
+    private final Histogram mThrottleTime = new Histogram();
+
+    TaskPoolMetrics(int maxExclusiveKeys) {
+        mMaxExclusiveKeys = maxExclusiveKeys;
+        mByExclusiveKey = maxExclusiveKeys > 0
+                ? new LinkedHashMap<String, KeyCounters>(16, 0.75f, true) : null;
+        for (int i = 0; i < mSubmitted.length; i++) {
+            mSubmitted[i] = new StripedCounter();
+        }
+    }
+
+    void onSubmit(Task<?, ?> task) {
+        mSubmitted[task.getPriority().ordinal()].increment();
+        String key = task.getExclusiveKey();
+        if (mByExclusiveKey == null || key == null) {
+            return;
+        }
+        synchronized (mByExclusiveKey) {
+            KeyCounters counters = mByExclusiveKey.get(key);
+            if (counters == null) {
+                if (mByExclusiveKey.size() >= mMaxExclusiveKeys) {
+                    // Make room by dropping the least recently used key.
+                    Iterator<KeyCounters> eldest = mByExclusiveKey.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+                counters = new KeyCounters();
+                mByExclusiveKey.put(key, counters);
+            }
+            counters.mSubmitted++;
+        }
+    }
+
+    void onStart(Task<?, ?> task, long now) {
+        long wait = now - task.getEnqueueTime();
+        if (task instanceof Batcher.Carrier) {
+            // The tasks of a batch waited in the queue together.
+            for (int i = ((Batcher.Carrier) task).getTasks().size(); i > 0; i--) {
+                mQueueWait.record(wait);
+            }
+            return;
+        }
+        mQueueWait.record(wait);
+    }
+
+    void onComplete(Task<?, ?> task, long start, long now, boolean success) {
+        if (task instanceof Batcher.Carrier) {
+            // Count the tasks of a batch rather than the batch, each with its own result.
+            Batcher.Carrier carrier = (Batcher.Carrier) task;
+            List<BatchTask<?, ?>> tasks = carrier.getTasks();
+            for (int i = 0; i < tasks.size(); i++) {
+                recordComplete(tasks.get(i), start, now, success && carrier.isSuccess(i));
+            }
+            return;
+        }
+        recordComplete(task, start, now, success);
+    }
+
+    private void recordComplete(Task<?, ?> task, long start, long now, boolean success) {
+        mExecution.record(now - start);
+        mLatency.record(now - task.getAddTime());
+        (success ? mSucceeded : mFailed).increment();
+        String key = task.getExclusiveKey();
+        if (mByExclusiveKey == null || key == null) {
+            return;
+        }
+        synchronized (mByExclusiveKey) {
+            KeyCounters counters = mByExclusiveKey.get(key);
+            if (counters != null) {
+                counters.mCompleted++;
+            }
+        }
+    }
+
+    void onRetry() {
+        mRetries.increment();
+    }
+
+    void onTimeout() {
+        mTimeouts.increment();
+    }
+
+    void onExpired() {
+        mExpired.increment();
+    }
+
+    void onThrottled(long waitNanos) {
+        mThrottled.increment();
+        mThrottleTime.record(waitNanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private static final class KeyCounters {
+
+        private long mSubmitted;
+        private long mCompleted;
+    }
+
+    /**
+     * The values of all metrics at one point in time, for export.
+     */
+    public static final class Snapshot {
+
+        private final long[] mSubmitted;
+        private final long mSucceeded;
+        private final long mFailed;
+        private final long mRetries;
+        private final long mTimeouts;
+        private final long mThrottled;
+        private final long mExpired;
+        private final Map<String, Long> mSubmittedByKey;
+        private final Map<String, Long> mCompletedByKey;
+        private final Histogram.Snapshot mQueueWait;
+        private final Histogram.Snapshot mExecution;
+        private final Histogram.Snapshot mLatency;
+        private final Histogram.Snapshot mThrottleTime;
+
+        private Snapshot(TaskPoolMetrics metrics) {
+            mSubmitted = new long[metrics.mSubmitted.length];
+            for (int i = 0; i < mSubmitted.length; i++) {
+                mSubmitted[i] = metrics.mSubmitted[i].sum();
+            }
+            mSucceeded = metrics.mSucceeded.sum();
+            mFailed = metrics.mFailed.sum();
+            mRetries = metrics.mRetries.sum();
+            mTimeouts = metrics.mTimeouts.sum();
+            mThrottled = metrics.mThrottled.sum();
+            mExpired = metrics.mExpired.sum();
+            Map<String, Long> submittedByKey = new HashMap<String, Long>();
+            Map<String, Long> completedByKey = new HashMap<String, Long>();
+            if (metrics.mByExclusiveKey != null) {
+                synchronized (metrics.mByExclusiveKey) {
+                    for (Map.Entry<String, KeyCounters> entry
+                            : metrics.mByExclusiveKey.entrySet()) {
+                        submittedByKey.put(entry.getKey(), entry.getValue().mSubmitted);
+                        completedByKey.put(entry.getKey(), entry.getValue().mCompleted);
+                    }
+                }
+            }
+            mSubmittedByKey = Collections.unmodifiableMap(submittedByKey);
+            mCompletedByKey = Collections.unmodifiableMap(completedByKey);
+            mQueueWait = metrics.mQueueWait.snapshot();
+            mExecution = metrics.mExecution.snapshot();
+            mLatency = metrics.mLatency.snapshot();
+            mThrottleTime = metrics.mThrottleTime.snapshot();
+        }
+
+        public long getSubmitted(Task.Priority priority) {
+            return mSubmitted[priority.ordinal()];
+        }
+
+        public long getSubmitted() {
+            long submitted = 0;
+            for (long count : mSubmitted) {
+                submitted += count;
+            }
+            return submitted;
+        }
+
+        public long getSucceeded() {
+            return mSucceeded;
+        }
+
+        public long getFailed() {
+            return mFailed;
+        }
+
+        public long getRetries() {
+            return mRetries;
+        }
+
+        public long getTimeouts() {
+            return mTimeouts;
+        }
+
+        /**
+         * How many times a task was held back by a rate limit, it may be more than once per task.
+         */
+        public long getThrottled() {
+            return mThrottled;
+        }
+
+        /**
+         * Tasks which failed because their deadline passed before they started.
+         */
+        public long getExpired() {
+            return mExpired;
+        }
+
+        /**
+         * Empty unless counters per exclusive key are enabled, and only has the most recently used
+         * keys. A key which was dropped and comes back starts counting from 0 again.
+         */
+        public Map<String, Long> getSubmittedByExclusiveKey() {
+            return mSubmittedByKey;
+        }
+
+        /**
+         * Like {@link #getSubmittedByExclusiveKey()}.
+         */
+        public Map<String, Long> getCompletedByExclusiveKey() {
+            return mCompletedByKey;
+        }
+
+        /**
+         * Time from entering the pending queue until a worker starts the task.
+         */
+        public Histogram.Snapshot getQueueWait() {
+            return mQueueWait;
+        }
+
+        /**
+         * Time spent in a worker, including retries without delay.
+         */
+        public Histogram.Snapshot getExecution() {
+            return mExecution;
+        }
+
+        /**
+         * Time from {@link TaskPool#add(Task)} until the result is handed to the delivery.
+         */
+        public Histogram.Snapshot getLatency() {
+            return mLatency;
+        }
+
+        /**
+         * Time a task was held back by a rate limit each time it was.
+         */
+        public Histogram.Snapshot getThrottleTime() {
+            return mThrottleTime;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.jasonyang.taskqueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tasks currently in a pool, indexed by tag and by exclusive key.
+ * <p>
+ * Nothing here takes a pool-wide lock. Index buckets are only locked while a task is added to or
+ * removed from them, so tasks with different tags and keys never contend. Tags are matched by
+ * identity, like {@link TaskPool#getTasksByTag(Object)} always did.
+ */
+final class TaskRegistry {
+
+    private static final Object NULL_KEY = new Object();
+
+    // Maps every task to the tag it was indexed with, in case the tag is changed later on.
+    private final ConcurrentHashMap<Task<?, ?>, Object> mTasks
+            = new ConcurrentHashMap<Task<?, ?>, Object>();
+    private final ConcurrentHashMap<Object, Bucket> mByTag
+            = new ConcurrentHashMap<Object, Bucket>();
+    private final ConcurrentHashMap<Object, Bucket> mByExclusiveKey
+            = new ConcurrentHashMap<Object, Bucket>();
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    /**
+     * Returns the number of tasks after adding this one.
+     */
+    int add(Task<?, ?> task) {
+        Object tagKey = tagKey(task.getTag());
+        if (mTasks.putIfAbsent(task, tagKey) != null) {
+            return mSize.get();
+        }
+        index(mByTag, tagKey, task);
+        index(mByExclusiveKey, exclusiveKey(task.getExclusiveKey()), task);
+        return mSize.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of tasks after removing this one.
+     */
+    int remove(Task<?, ?> task) {
+        Object tagKey = mTasks.remove(task);
+        if (tagKey == null) {
+            return mSize.get();
+        }
+        unindex(mByTag, tagKey, task);
+        unindex(mByExclusiveKey, exclusiveKey(task.getExclusiveKey()), task);
+        return mSize.decrementAndGet();
+    }
+
+    int size() {
+        return mSize.get();
+    }
+
+    Iterable<Task<?, ?>> all() {
+        return mTasks.keySet();
+    }
+
+    List<Task<?, ?>> getByTag(Object tag) {
+        return snapshot(mByTag.get(tagKey(tag)));
+    }
+
+    List<Task<?, ?>> getByExclusiveKey(String key) {
+        return snapshot(mByExclusiveKey.get(exclusiveKey(key)));
+    }
+
+    void clear() {
+        for (Task<?, ?> task : mTasks.keySet()) {
+            remove(task);
+        }
+    }
+
+    private static Object tagKey(Object tag) {
+        return tag == null ? NULL_KEY : new IdentityKey(tag);
+    }
+
+    private static Object exclusiveKey(String key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static void index(ConcurrentHashMap<Object, Bucket> index, Object key,
+                              Task<?, ?> task) {
+        for (; ; ) {
+            Bucket bucket = index.get(key);
+            if (bucket == null) {
+                Bucket newBucket = new Bucket();
+                bucket = index.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            synchronized (bucket) {
+                if (!bucket.mRemoved) {
+                    bucket.mTasks.add(task);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void unindex(ConcurrentHashMap<Object, Bucket> index, Object key,
+                                Task<?, ?> task) {
+        Bucket bucket = index.get(key);
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (bucket.mTasks.remove(task) && bucket.mTasks.isEmpty()) {
+                bucket.mRemoved = true;
+                index.remove(key, bucket);
+            }
+        }
+    }
+
+    private static List<Task<?, ?>> snapshot(Bucket bucket) {
+        if (bucket == null) {
+            return new ArrayList<Task<?, ?>>(0);
+        }
+        return new ArrayList<Task<?, ?>>(bucket.mTasks);
+    }
+
+    private static final class Bucket {
+
+        // Readers iterate without locking, writers lock the bucket to retire it safely.
+        private final Set<Task<?, ?>> mTasks
+                = Collections.newSetFromMap(new ConcurrentHashMap<Task<?, ?>, Boolean>());
+        private boolean mRemoved;
+    }
+
+    private static final class IdentityKey {
+
+        private final Object mObject;
+
+        IdentityKey(Object object) {
+            mObject = object;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).mObject == mObject;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mObject);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds a new task from a {@link TaskPool.TaskFactory} to a pool periodically, see
+ * {@link TaskPool#scheduleAtFixedRate} and {@link TaskPool#scheduleWithFixedDelay}.
+ * <p>
+ * Runs never overlap. A fixed rate run which comes due while the previous task is still in the
+ * pool is added as soon as that one finishes, and runs which are missed meanwhile are dropped. A
+ * run the pool rejects, or whose factory throws or returns null, is skipped. The schedule ends
+ * when the pool stops.
+ * <p>
+ * The factory is called, and its task added, on a thread of a small shared pool, never on the
+ * timer thread or the thread which finished the previous task. A slow factory, or a full pool
+ * which blocks on {@link TaskPool.OverflowPolicy#BLOCK}, only holds up its own schedule.
+ */
+public final class TaskSchedule {
+
+    private static final Executor sRunner = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1L,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "TaskSchedule");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final TaskPool mTaskPool;
+    private final TaskPool.TaskFactory mFactory;
+    private final long mPeriodNanos;
+    private final boolean mFixedRate;
+    private final TimingWheel.Entry mEntry = new TimingWheel.Entry() {
+        @Override
+        void expire() {
+            onDue();
+        }
+    };
+    private final Runnable mAddTask = new Runnable() {
+        @Override
+        public void run() {
+            addTask();
+        }
+    };
+    // Guarded by this schedule.
+    private long mNextRun;
+    // Set from the time a run is handed to the runner until its task finished.
+    private boolean mRunning;
+    private Task<?, ?> mCurrent;
+    private boolean mOverdue;
+    private boolean mCanceled;
+
+    TaskSchedule(TaskPool taskPool, TaskPool.TaskFactory factory, long periodNanos,
+                 boolean fixedRate) {
+        mTaskPool = taskPool;
+        mFactory = factory;
+        mPeriodNanos = periodNanos;
+        mFixedRate = fixedRate;
+    }
+
+    /**
+     * Stops adding tasks. The task of the current run, if any, isn't affected.
+     */
+    public void cancel() {
+        synchronized (this) {
+            mCanceled = true;
+        }
+        mTaskPool.unschedule(mEntry);
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    void start(long initialDelayNanos) {
+        synchronized (this) {
+            mNextRun = System.nanoTime() + initialDelayNanos;
+        }
+        mTaskPool.schedule(mEntry, initialDelayNanos);
+    }
+
+    private void onDue() {
+        if (mFixedRate) {
+            long delay;
+            synchronized (this) {
+                if (mCanceled) {
+                    return;
+                }
+                mNextRun += mPeriodNanos;
+                delay = mNextRun - System.nanoTime();
+            }
+            mTaskPool.schedule(mEntry, Math.max(0, delay));
+        }
+        run();
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            if (mRunning) {
+                mOverdue = true;
+                return;
+            }
+            mRunning = true;
+        }
+        sRunner.execute(mAddTask);
+    }
+
+    private void addTask() {
+        Task<?, ?> task;
+        try {
+            task = mFactory.create();
+        } catch (RuntimeException e) {
+            // Skip the run rather than end the schedule, as if the pool rejected its task.
+            task = null;
+        }
+        if (task == null) {
+            onFinish(null);
+            return;
+        }
+        task.setSchedule(this);
+        synchronized (this) {
+            mCurrent = task;
+        }
+        if (mTaskPool.add(task) == null) {
+            onFinish(task);
+        }
+    }
+
+    /**
+     * Called by the pool once the task of a run finished, or with null if the factory made none.
+     */
+    void onFinish(Task<?, ?> task) {
+        boolean overdue;
+        synchronized (this) {
+            if (!mRunning || mCurrent != task) {
+                return;
+            }
+            mRunning = false;
+            mCurrent = null;
+            overdue = mOverdue;
+            mOverdue = false;
+            if (mCanceled) {
+                return;
+            }
+        }
+        if (!mFixedRate) {
+            mTaskPool.schedule(mEntry, mPeriodNanos);
+        } else if (overdue) {
+            run();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single shared timer thread for timeouts and other delayed work of the pool.
+ */
+final class TaskTimer {
+
+    private static final TaskTimer sShared = new TaskTimer();
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    private TaskTimer() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TaskTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static TaskTimer shared() {
+        return sShared;
+    }
+
+    Timeout schedule(Runnable runnable, long delay, TimeUnit unit) {
+        return new Timeout(mExecutor.schedule(runnable, delay, unit));
+    }
+
+    final class Timeout {
+
+        private final ScheduledFuture<?> mFuture;
+
+        private Timeout(ScheduledFuture<?> future) {
+            mFuture = future;
+        }
+
+        boolean cancel() {
+            boolean canceled = mFuture.cancel(false);
+            if (canceled) {
+                // Don't keep a canceled timeout in the queue until it expires.
+                mExecutor.remove((Runnable) mFuture);
+            }
+            return canceled;
+        }
+    }
+}
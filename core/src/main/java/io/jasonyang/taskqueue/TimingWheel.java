@@ -0,0 +1,246 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel: {@value #LEVELS} wheels of {@value #SLOTS} slots, each slot of a
+ * wheel covering a whole turn of the wheel below. An entry goes into the lowest wheel its delay
+ * fits in, and moves down a wheel whenever the wheel below turns over, until it expires from the
+ * lowest one. Scheduling and canceling an entry is O(1), it's unlinked from its slot in place.
+ * <p>
+ * The wheel doesn't own a thread. It arms a single timeout on the {@link TaskTimer} for the next
+ * tick which has something to do, which is at most one turn of the lowest wheel away, and expires
+ * entries on the timer thread. Entries never expire early, and at most a tick late; entries due in
+ * the same tick expire in no particular order.
+ */
+final class TimingWheel implements Runnable {
+
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * Something to run once its delay passed. An entry is in one wheel at a time, but can be
+     * scheduled again once it expired or was canceled.
+     */
+    abstract static class Entry {
+
+        private Entry mPrev;
+        private Entry mNext;
+        // Links the entries expiring in one run, apart from mNext so expire() may schedule again.
+        private Entry mNextExpired;
+        private long mExpiry;
+        private int mLevel = -1;
+
+        abstract void expire();
+    }
+
+    private final long mTickNanos;
+    private final long mOrigin = System.nanoTime();
+    private final Entry[][] mSlots = new Entry[LEVELS][SLOTS];
+    // Every tick up to this one has been processed.
+    private long mTick;
+    private int mSize;
+    private TaskTimer.Timeout mTimeout;
+    private long mWakeTick;
+
+    TimingWheel(long tick, TimeUnit unit) {
+        mTickNanos = unit.toNanos(tick);
+        if (mTickNanos <= 0) {
+            throw new IllegalArgumentException("tick <= 0");
+        }
+    }
+
+    synchronized void schedule(Entry entry, long delay, TimeUnit unit) {
+        if (entry.mLevel >= 0) {
+            throw new IllegalStateException("Already scheduled");
+        }
+        long now = System.nanoTime() - mOrigin;
+        if (mSize == 0) {
+            // Nothing to process in between, so an idle wheel can skip ahead.
+            mTick = Math.max(mTick, now / mTickNanos);
+        }
+        // Round up, so the entry never expires before its delay passed.
+        long expiry = (now + unit.toNanos(delay) + mTickNanos - 1) / mTickNanos;
+        entry.mExpiry = Math.max(expiry, mTick + 1);
+        insert(entry);
+        mSize++;
+        // The armed timeout is never later than the next turn, so only an entry in the lowest
+        // wheel can need an earlier one.
+        if (mTimeout == null || entry.mLevel == 0 && entry.mExpiry < mWakeTick) {
+            arm();
+        }
+    }
+
+    /**
+     * Returns false if the entry wasn't scheduled, or already expired.
+     */
+    synchronized boolean cancel(Entry entry) {
+        if (entry.mLevel < 0) {
+            return false;
+        }
+        unlink(entry);
+        mSize--;
+        return true;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized void clear() {
+        for (Entry[] slots : mSlots) {
+            for (int i = 0; i < SLOTS; i++) {
+                for (Entry entry = slots[i]; entry != null; ) {
+                    Entry next = entry.mNext;
+                    entry.mPrev = null;
+                    entry.mNext = null;
+                    entry.mLevel = -1;
+                    entry = next;
+                }
+                slots[i] = null;
+            }
+        }
+        mSize = 0;
+        if (mTimeout != null) {
+            mTimeout.cancel();
+            mTimeout = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        Entry expired = null;
+        synchronized (this) {
+            mTimeout = null;
+            long now = (System.nanoTime() - mOrigin) / mTickNanos;
+            while (mTick < now) {
+                long next = nextEventTick();
+                if (next > now) {
+                    // Nothing happens in between, skip right to now.
+                    mTick = now;
+                    break;
+                }
+                mTick = next;
+                cascade();
+                // What's in the slot of this tick expires now.
+                int slot = (int) (mTick & MASK);
+                Entry entry = mSlots[0][slot];
+                mSlots[0][slot] = null;
+                while (entry != null) {
+                    Entry following = entry.mNext;
+                    entry.mPrev = null;
+                    entry.mNext = null;
+                    entry.mLevel = -1;
+                    entry.mNextExpired = expired;
+                    expired = entry;
+                    mSize--;
+                    entry = following;
+                }
+            }
+            arm();
+        }
+
+        RuntimeException error = null;
+        while (expired != null) {
+            Entry entry = expired;
+            expired = entry.mNextExpired;
+            entry.mNextExpired = null;
+            try {
+                entry.expire();
+            } catch (RuntimeException e) {
+                // Don't let one entry hold up the others.
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void insert(Entry entry) {
+        long delta = entry.mExpiry - mTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        // Entries beyond the top wheel come around early and are inserted again.
+        int slot = (int) ((entry.mExpiry >>> (BITS * level)) & MASK);
+        Entry head = mSlots[level][slot];
+        entry.mLevel = level;
+        entry.mPrev = null;
+        entry.mNext = head;
+        if (head != null) {
+            head.mPrev = entry;
+        }
+        mSlots[level][slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.mPrev != null) {
+            entry.mPrev.mNext = entry.mNext;
+        } else {
+            int slot = (int) ((entry.mExpiry >>> (BITS * entry.mLevel)) & MASK);
+            mSlots[entry.mLevel][slot] = entry.mNext;
+        }
+        if (entry.mNext != null) {
+            entry.mNext.mPrev = entry.mPrev;
+        }
+        entry.mPrev = null;
+        entry.mNext = null;
+        entry.mLevel = -1;
+    }
+
+    /**
+     * Moves the entries of every wheel which turns over at this tick one wheel down, from the top
+     * down so an entry moved twice isn't left in a slot which already turned.
+     */
+    private void cascade() {
+        int top = 0;
+        while (top < LEVELS - 1 && (mTick & ((1L << (BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        for (int level = top; level > 0; level--) {
+            int slot = (int) ((mTick >>> (BITS * level)) & MASK);
+            Entry entry = mSlots[level][slot];
+            mSlots[level][slot] = null;
+            while (entry != null) {
+                Entry next = entry.mNext;
+                insert(entry);
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * The next tick with entries to expire in the lowest wheel, or at which it turns over.
+     */
+    private long nextEventTick() {
+        if (mSize == 0) {
+            return Long.MAX_VALUE;
+        }
+        long turn = (mTick | MASK) + 1;
+        for (long tick = mTick + 1; tick < turn; tick++) {
+            if (mSlots[0][(int) (tick & MASK)] != null) {
+                return tick;
+            }
+        }
+        return turn;
+    }
+
+    private void arm() {
+        long wake = nextEventTick();
+        if (wake == Long.MAX_VALUE || mTimeout != null && mWakeTick <= wake) {
+            return;
+        }
+        if (mTimeout != null) {
+            mTimeout.cancel();
+        }
+        long delay = Math.max(0, mOrigin + wake * mTickNanos - System.nanoTime());
+        mTimeout = TaskTimer.shared().schedule(this, delay, TimeUnit.NANOSECONDS);
+        mWakeTick = wake;
+    }
+}
@@ -0,0 +1,47 @@
+package io.jasonyang.taskqueue;
+
+/**
+ * Interrupts the thread running a task when the task times out or is canceled.
+ * <p>
+ * The running thread must call {@link #disarm()} once it leaves {@link Task#onExecute()}, which
+ * guarantees that no interrupt leaks to the next job of a pooled worker thread.
+ */
+final class Watchdog implements Runnable {
+
+    static final int NONE = 0;
+    static final int TIMEOUT = 1;
+    static final int CANCELED = 2;
+
+    private final Thread mThread;
+    private int mReason = NONE;
+    private boolean mDisarmed = false;
+
+    Watchdog(Thread thread) {
+        mThread = thread;
+    }
+
+    @Override
+    public void run() {
+        trip(TIMEOUT);
+    }
+
+    synchronized boolean trip(int reason) {
+        if (mDisarmed) {
+            return false;
+        }
+        mDisarmed = true;
+        mReason = reason;
+        mThread.interrupt();
+        return true;
+    }
+
+    synchronized int disarm() {
+        if (!mDisarmed) {
+            mDisarmed = true;
+        } else if (mReason != NONE) {
+            // Clear the interrupt we raised ourselves.
+            Thread.interrupted();
+        }
+        return mReason;
+    }
+}
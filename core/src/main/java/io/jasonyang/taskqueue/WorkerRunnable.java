@@ -0,0 +1,95 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Created by JasonYang on 2015/7/31.
+ * <p>
+ * Recycled into the pool it was created with as soon as it starts running, so a dispatcher only
+ * allocates one per concurrently running task.
+ */
+final class WorkerRunnable implements Runnable {
+
+    private final ObjectPool<WorkerRunnable> mPool;
+    private Task<?, ?> mTask;
+    private final ResultDelivery mDelivery;
+    private final TaskPool.ExecutionMode mMode;
+    private final Semaphore mWorkerSlots;
+    private final PriorityLimits mPriorityLimits;
+    private final Platform mPlatform;
+    private final TaskPoolMetrics mMetrics;
+    private final ResultCache mResultCache;
+
+    public WorkerRunnable(ObjectPool<WorkerRunnable> pool, ResultDelivery delivery,
+                          TaskPool.ExecutionMode mode, Semaphore workerSlots,
+                          PriorityLimits priorityLimits, Platform platform,
+                          TaskPoolMetrics metrics, ResultCache resultCache) {
+        mPool = pool;
+        mDelivery = delivery;
+        mMode = mode;
+        mWorkerSlots = workerSlots;
+        mPriorityLimits = priorityLimits;
+        mPlatform = platform;
+        mMetrics = metrics;
+        mResultCache = resultCache;
+    }
+
+    void setTask(Task<?, ?> task) {
+        mTask = task;
+    }
+
+    void recycle() {
+        mTask = null;
+        mPool.release(this);
+    }
+
+    @Override
+    public void run() {
+        Task<?, ?> task = mTask;
+        // Everything else is fixed per dispatcher, so the dispatcher can reuse it right away.
+        recycle();
+        mPlatform.setBackgroundThreadPriority();
+        long start = 0;
+        try {
+            if (task.isCanceled() || task.isTimeout() || task.hasHadResultDelivered()) {
+                task.finish();
+                return;
+            }
+            if (mMetrics != null) {
+                start = System.nanoTime();
+                mMetrics.onStart(task, start);
+            }
+            if (task instanceof CallbackTask) {
+                // The task completes on its own, don't hold the worker meanwhile.
+                ((CallbackTask<?, ?>) task).start(mDelivery, mMetrics, mResultCache, start);
+                return;
+            }
+            Result<?> result = task.execute(mMode);
+            if (result == null) {
+                // Release this worker while the task waits for its next attempt.
+                task.scheduleRetry();
+                return;
+            }
+            if (mMetrics != null) {
+                mMetrics.onComplete(task, start, System.nanoTime(), true);
+            }
+            if (mResultCache != null) {
+                mResultCache.put(task, result.result);
+            }
+            mDelivery.postResult(task, result);
+        } catch (Throwable error) {
+            if (mMetrics != null && start != 0) {
+                mMetrics.onComplete(task, start, System.nanoTime(), false);
+            }
+            mDelivery.postError(task, error);
+        } finally {
+            // The dispatcher took the slot of its priority before handing it over.
+            if (mPriorityLimits != null) {
+                mPriorityLimits.leave(task);
+            }
+            if (mWorkerSlots != null) {
+                mWorkerSlots.release();
+            }
+        }
+    }
+}
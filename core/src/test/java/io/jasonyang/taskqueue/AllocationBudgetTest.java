@@ -0,0 +1,105 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated by all threads per task going through the pool, from add to delivery, have to
+ * stay within a budget. The task itself is part of it.
+ * <p>
+ * What the JIT manages to remove depends on the JVM and its flags, so the test only runs when
+ * asked for with {@code -Dtaskqueue.allocationBudget=true}, which
+ * {@code ./gradlew :core:test -PallocationBudget} sets. It's also skipped where the JVM doesn't
+ * count allocations per thread. {@code AllocationBenchmark} measures the same path with JMH.
+ */
+public class AllocationBudgetTest {
+
+    // A 64-bit HotSpot with compressed oops allocates about 590 bytes per task in NESTED and 460
+    // in INLINE; the budgets leave about 10% on top of that. NESTED allocates a Future per attempt
+    // on top of what INLINE does.
+    private static final long NESTED_BUDGET = 660;
+    private static final long INLINE_BUDGET = 512;
+    private static final int WARM_UP_TASKS = 50000;
+    private static final int TASKS = 50000;
+
+    @Test(timeout = 60000)
+    public void nestedModeStaysWithinBudget() throws Exception {
+        assertWithinBudget(TaskPool.ExecutionMode.NESTED, NESTED_BUDGET);
+    }
+
+    @Test(timeout = 60000)
+    public void inlineModeStaysWithinBudget() throws Exception {
+        assertWithinBudget(TaskPool.ExecutionMode.INLINE, INLINE_BUDGET);
+    }
+
+    private void assertWithinBudget(TaskPool.ExecutionMode mode, long budget) throws Exception {
+        assumeTrue(Boolean.getBoolean("taskqueue.allocationBudget"));
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        TaskPool pool = TestSupport.directPool()
+                .setExecutionMode(mode)
+                .setMaxConcurrency(2)
+                .build();
+        pool.start();
+        try {
+            // Fills the pools of envelopes and lets the JIT remove what it can.
+            run(pool, WARM_UP_TASKS);
+            Map<Long, Long> before = allocatedBytes(threads);
+            run(pool, TASKS);
+            long perTask = allocatedSince(threads, before) / TASKS;
+            assertTrue(mode + " allocated " + perTask + " bytes per task, budget " + budget,
+                    perTask <= budget);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static void run(TaskPool pool, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            pool.add(new StubTask());
+        }
+        assertTrue("tasks left in the pool", TestSupport.awaitEmpty(pool, 30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Returns the bytes allocated so far by every live thread, by thread id.
+     */
+    private static Map<Long, Long> allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++) {
+            // -1 for a thread which died since its id was taken.
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Returns the bytes allocated since the given counts were taken. Threads which start meanwhile
+     * count in full. Threads which end meanwhile, like NESTED workers of {@link Task} idle for a
+     * second, take their counts with them, so the result can only be too low, never too high.
+     */
+    private static long allocatedSince(com.sun.management.ThreadMXBean threads,
+                                       Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : allocatedBytes(threads).entrySet()) {
+            Long start = before.get(entry.getKey());
+            total += entry.getValue() - (start != null ? start : 0);
+        }
+        return total;
+    }
+}
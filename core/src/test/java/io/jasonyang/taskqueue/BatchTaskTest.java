@@ -0,0 +1,251 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The rules of a pool apply to the tasks of a batch one by one, except for the rate limits and
+ * the concurrency limit of a priority, which count the batch as one task.
+ */
+public class BatchTaskTest {
+
+    @Test(timeout = 30000)
+    public void failsOnlyTasksPastTheirDeadline() throws Exception {
+        TaskPool pool = TestSupport.directPool().setMaxConcurrency(1).build();
+        Batch batch = new Batch();
+        CountDownLatch gate = new CountDownLatch(1);
+        pool.start();
+        try {
+            pool.add(new GatedTask(gate));
+            List<Member> members = batch.members(3, 3, 1000);
+            members.get(1).setDeadline(20, TimeUnit.MILLISECONDS);
+            batch.addAll(pool, members);
+            Thread.sleep(100);
+            gate.countDown();
+
+            batch.awaitDelivered();
+            assertEquals("inputs of the batch", Arrays.<Object>asList(0, 2), batch.mInputs.get(0));
+            assertEquals("result of the first task", 0, members.get(0).mResult);
+            assertTrue("error of the expired task",
+                    members.get(1).mError instanceof DeadlineExceededException);
+            assertEquals("result of the last task", 2, members.get(2).mResult);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void cachesTheResultOfEachTask() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setResultCache(new ResultCache(16, 0, TimeUnit.SECONDS))
+                .build();
+        Batch batch = new Batch();
+        pool.start();
+        try {
+            batch.addAll(pool, batch.members(2, 2, 1000));
+            batch.awaitDelivered();
+
+            Batch cached = new Batch();
+            List<Member> again = cached.members(1, 2, 1000);
+            cached.addAll(pool, again);
+            cached.awaitDelivered();
+            assertEquals("batches run", 1, batch.mInputs.size());
+            assertEquals("batches run for a cached result", 0, cached.mInputs.size());
+            assertEquals("cached result", 0, again.get(0).mResult);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void lingeringBatchIsDroppedWhenThePoolStops() throws Exception {
+        TaskPool pool = TestSupport.directPool().build();
+        Batch batch = new Batch();
+        pool.start();
+        try {
+            batch.addAll(pool, batch.members(1, 2, 100));
+            pool.stop();
+            pool.start();
+            Thread.sleep(300);
+            assertEquals("batches run after a restart", 0, batch.mInputs.size());
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void batchTakesOneRateToken() throws Exception {
+        // One token a minute, so only one task or batch can start during the test.
+        TaskPool pool = TestSupport.directPool().setRateLimit(1 / 60.0, 1).build();
+        Batch batch = new Batch();
+        pool.start();
+        try {
+            batch.addAll(pool, batch.members(4, 4, 1000));
+            batch.awaitDelivered();
+            assertEquals("batches run", 1, batch.mInputs.size());
+            assertEquals("inputs of the batch", 4, batch.mInputs.get(0).size());
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void batchTakesOnePrioritySlot() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setMaxConcurrency(2)
+                .setPriorityConcurrency(Task.Priority.LOW, 1)
+                .build();
+        Batch batch = new Batch();
+        CountDownLatch gate = new CountDownLatch(1);
+        pool.start();
+        try {
+            GatedTask low = new GatedTask(gate);
+            low.setPriority(Task.Priority.LOW);
+            pool.add(low);
+            List<Member> members = batch.members(3, 3, 1000);
+            for (Member member : members) {
+                member.setPriority(Task.Priority.LOW);
+            }
+            batch.addAll(pool, members);
+            Thread.sleep(100);
+            assertEquals("batches run while the LOW slot is taken", 0, batch.mInputs.size());
+
+            gate.countDown();
+            batch.awaitDelivered();
+            assertEquals("batches run", 1, batch.mInputs.size());
+            assertEquals("inputs of the batch", 3, batch.mInputs.get(0).size());
+        } finally {
+            pool.stop();
+        }
+    }
+
+    /**
+     * The tasks added by one test, and the inputs of each batch they ran in.
+     */
+    private static final class Batch {
+
+        final List<List<Object>> mInputs
+                = Collections.synchronizedList(new ArrayList<List<Object>>());
+        private CountDownLatch mDelivered;
+
+        /**
+         * Makes tasks whose inputs and cache keys are their indexes.
+         */
+        List<Member> members(int count, int maxBatchSize, long lingerMillis) {
+            mDelivered = new CountDownLatch(count);
+            List<Member> members = new ArrayList<Member>(count);
+            for (int i = 0; i < count; i++) {
+                Member member = new Member(this, maxBatchSize, lingerMillis);
+                member.setData(i);
+                members.add(member);
+            }
+            return members;
+        }
+
+        void addAll(TaskPool pool, List<Member> members) {
+            for (Member member : members) {
+                assertTrue("task was rejected", pool.add(member) != null);
+            }
+        }
+
+        void awaitDelivered() throws InterruptedException {
+            assertTrue("tasks of the batch weren't delivered",
+                    mDelivered.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static final class Member extends BatchTask<Object, Object> {
+
+        private final Batch mBatch;
+        private final int mMaxBatchSize;
+        private final long mLingerMillis;
+        private Object mData;
+        volatile Object mResult;
+        volatile Throwable mError;
+
+        Member(Batch batch, int maxBatchSize, long lingerMillis) {
+            super(null);
+            mBatch = batch;
+            mMaxBatchSize = maxBatchSize;
+            mLingerMillis = lingerMillis;
+        }
+
+        @Override
+        public Object getData() {
+            return mData;
+        }
+
+        @Override
+        public void setData(Object data) {
+            mData = data;
+        }
+
+        @Override
+        public String getBatchKey() {
+            return "batch";
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return mMaxBatchSize;
+        }
+
+        @Override
+        public long getMaxLingerMillis() {
+            return mLingerMillis;
+        }
+
+        @Override
+        public Object getCacheKey() {
+            return mData;
+        }
+
+        @Override
+        protected List<Result<Object>> onExecuteBatch(List<Object> inputs) {
+            mBatch.mInputs.add(new ArrayList<Object>(inputs));
+            List<Result<Object>> results = new ArrayList<Result<Object>>(inputs.size());
+            for (Object input : inputs) {
+                results.add(Result.success(input));
+            }
+            return results;
+        }
+
+        @Override
+        protected void deliverResult(Object result) {
+            assertNull("delivered twice", mResult);
+            mResult = result;
+            mBatch.mDelivered.countDown();
+        }
+
+        @Override
+        public void deliverError(Throwable error) {
+            mError = error;
+            mBatch.mDelivered.countDown();
+        }
+    }
+
+    private static final class GatedTask extends StubTask {
+
+        private final CountDownLatch mGate;
+
+        GatedTask(CountDownLatch gate) {
+            mGate = gate;
+        }
+
+        @Override
+        protected Object onExecute() throws Exception {
+            mGate.await();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tasks keep the place they were queued at when their deadline or priority changes, and a full
+ * pool in earliest deadline first mode drops the task with the latest deadline.
+ */
+public class DeadlinePendingQueueTest {
+
+    @Test
+    public void changingAQueuedTaskKeepsTheQueueOrdered() {
+        DeadlinePendingQueue queue = new DeadlinePendingQueue();
+        List<StubTask> tasks = new ArrayList<StubTask>();
+        for (int i = 0; i < 3; i++) {
+            StubTask task = new StubTask();
+            task.setSequence(i + 1);
+            task.setDeadline(i + 1, TimeUnit.SECONDS);
+            tasks.add(task);
+            queue.add(task);
+        }
+        // Would move the first task behind the others if it was sorted again.
+        tasks.get(0).setDeadline(1, TimeUnit.HOURS);
+        tasks.get(0).setPriority(Task.Priority.LOW);
+        tasks.get(2).resetDeadline();
+
+        assertTrue("changed task isn't found", queue.contains(tasks.get(0)));
+        assertTrue("changed task can't be removed", queue.remove(tasks.get(2)));
+        assertSame("first task", tasks.get(0), queue.poll());
+        assertSame("second task", tasks.get(1), queue.poll());
+        assertNull("removed task is still queued", queue.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void fullPoolDropsTheTaskWithTheLatestDeadline() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setSchedulingMode(TaskPool.SchedulingMode.EARLIEST_DEADLINE_FIRST)
+                .setMaxConcurrency(1)
+                .setPendingCapacity(2, TaskPool.OverflowPolicy.DROP_LOWEST)
+                .build();
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.start();
+        try {
+            pool.add(new StubTask() {
+                @Override
+                protected Object onExecute() throws Exception {
+                    gate.await();
+                    return null;
+                }
+            });
+            Thread.sleep(100);
+            // The latest deadline, but the highest priority.
+            RecordingTask late = new RecordingTask(Task.Priority.IMMEDIATE, 10);
+            RecordingTask early = new RecordingTask(Task.Priority.LOW, 1);
+            assertNotNull(pool.add(late));
+            assertNotNull(pool.add(early));
+            RecordingTask added = new RecordingTask(Task.Priority.NORMAL, 5);
+            assertNotNull("task with an earlier deadline was rejected", pool.add(added));
+
+            gate.countDown();
+            assertTrue("tasks left in the pool",
+                    TestSupport.awaitEmpty(pool, 10, TimeUnit.SECONDS));
+            assertTrue("task with the latest deadline wasn't dropped", late.mErrors == 1);
+            assertEquals("result of the earliest task", 1, early.mResults);
+            assertEquals("result of the added task", 1, added.mResults);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static final class RecordingTask extends StubTask {
+
+        volatile int mResults;
+        volatile int mErrors;
+
+        RecordingTask(Priority priority, long deadlineSeconds) {
+            setPriority(priority);
+            setDeadline(deadlineSeconds, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected void deliverResult(Object result) {
+            mResults++;
+        }
+
+        @Override
+        public void deliverError(Throwable error) {
+            mErrors++;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A task canceled while it waits for its dependencies leaves the pool right away, rather than when
+ * the dependencies finish, and fails its own dependents.
+ */
+public class DependencyCancelTest {
+
+    @Test(timeout = 30000)
+    public void canceledWaiterLeavesThePoolAtOnce() throws Exception {
+        TaskPool pool = TestSupport.directPool().setMaxConcurrency(1).build();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        pool.start();
+        try {
+            CountingTask dependency = new CountingTask() {
+                @Override
+                protected Object onExecute() throws Exception {
+                    started.countDown();
+                    gate.await();
+                    return null;
+                }
+            };
+            CountingTask waiter = new CountingTask();
+            waiter.addDependency(dependency);
+            CountingTask next = new CountingTask();
+            next.addDependency(waiter);
+            pool.add(dependency);
+            pool.add(waiter);
+            pool.add(next);
+            assertTrue("dependency didn't start", started.await(10, TimeUnit.SECONDS));
+
+            waiter.cancel();
+            assertEquals("tasks in the pool after the cancel", 1, pool.size());
+            assertTrue("error of the next task",
+                    next.mError instanceof DependencyFailedException);
+            assertEquals("dependents left on the dependency", 0,
+                    dependency.releaseDependents(false).size());
+
+            gate.countDown();
+            assertTrue("tasks left in the pool",
+                    TestSupport.awaitEmpty(pool, 10, TimeUnit.SECONDS));
+            assertEquals("runs of the canceled task", 0, waiter.mRuns);
+            assertEquals("errors of the canceled task", 0, waiter.mErrors);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static class CountingTask extends StubTask {
+
+        volatile int mRuns;
+        volatile int mErrors;
+        volatile Throwable mError;
+
+        @Override
+        protected Object onExecute() throws Exception {
+            mRuns++;
+            return null;
+        }
+
+        @Override
+        public void deliverError(Throwable error) {
+            mError = error;
+            mErrors++;
+        }
+    }
+}
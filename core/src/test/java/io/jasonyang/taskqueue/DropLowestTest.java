@@ -0,0 +1,95 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A full pool with {@link TaskPool.OverflowPolicy#DROP_LOWEST} drops only as many tasks as it takes
+ * to make room, and never one which holds no pending capacity.
+ */
+public class DropLowestTest {
+
+    private static final int CAPACITY = 2;
+    private static final int DELAYED = 3;
+
+    @Test(timeout = 30000)
+    public void dropsOnlyTasksWhichHoldCapacity() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setMaxConcurrency(1)
+                .setPendingCapacity(CAPACITY, TaskPool.OverflowPolicy.DROP_LOWEST)
+                .build();
+        final CountDownLatch gate = new CountDownLatch(1);
+        List<CountingTask> tasks = new ArrayList<CountingTask>();
+        pool.start();
+        try {
+            CountingTask blocker = new CountingTask(Task.Priority.HIGH) {
+                @Override
+                protected Object onExecute() throws Exception {
+                    gate.await();
+                    return null;
+                }
+            };
+            pool.add(blocker);
+            // Delayed tasks give their capacity back once they're due, and are queued without it.
+            for (int i = 0; i < DELAYED; i++) {
+                CountingTask low = new CountingTask(Task.Priority.LOW);
+                tasks.add(low);
+                pool.addDelayed(low, 1, TimeUnit.MILLISECONDS);
+            }
+            Thread.sleep(100);
+            for (int i = 0; i < CAPACITY; i++) {
+                CountingTask normal = new CountingTask(Task.Priority.NORMAL);
+                tasks.add(normal);
+                assertNotNull("NORMAL task " + i + " was rejected", pool.add(normal));
+            }
+            CountingTask high = new CountingTask(Task.Priority.HIGH);
+            tasks.add(high);
+            assertNotNull("HIGH task was rejected", pool.add(high));
+
+            gate.countDown();
+            assertTrue("tasks left in the pool",
+                    TestSupport.awaitEmpty(pool, 10, TimeUnit.SECONDS));
+            int dropped = 0;
+            for (CountingTask task : tasks) {
+                if (task.mErrors > 0) {
+                    assertEquals("dropped a task which held no capacity",
+                            Task.Priority.NORMAL, task.getPriority());
+                    dropped++;
+                } else {
+                    assertEquals("result of a " + task.getPriority() + " task", 1, task.mResults);
+                }
+            }
+            assertEquals("dropped tasks", 1, dropped);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static class CountingTask extends StubTask {
+
+        volatile int mResults;
+        volatile int mErrors;
+
+        CountingTask(Priority priority) {
+            setPriority(priority);
+        }
+
+        @Override
+        protected void deliverResult(Object result) {
+            mResults++;
+        }
+
+        @Override
+        public void deliverError(Throwable error) {
+            mErrors++;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many producers add tasks over a few exclusive keys while some of them are canceled, and every
+ * task of a key has to run alone, in the order its producer added it, and without being lost.
+ */
+public class ExclusiveKeyStressTest {
+
+    private static final int KEYS = 16;
+    private static final int PRODUCERS = 8;
+    private static final int TASKS_PER_PRODUCER = 2000;
+
+    @Test(timeout = 60000)
+    public void keepsPerKeyOrderInNestedMode() throws Exception {
+        run(TestSupport.directPool()
+                .setMaxConcurrency(8)
+                .build());
+    }
+
+    @Test(timeout = 60000)
+    public void keepsPerKeyOrderInInlineModeWithShards() throws Exception {
+        run(TestSupport.directPool()
+                .setExecutionMode(TaskPool.ExecutionMode.INLINE)
+                .setMaxConcurrency(8)
+                .setDispatcherCount(4, 0)
+                .build());
+    }
+
+    private void run(final TaskPool pool) throws Exception {
+        final Lanes lanes = new Lanes();
+        final List<List<KeyedTask>> added = new ArrayList<List<KeyedTask>>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        pool.start();
+        try {
+            for (int p = 0; p < PRODUCERS; p++) {
+                final int producer = p;
+                final List<KeyedTask> tasks = new ArrayList<KeyedTask>();
+                added.add(tasks);
+                producers[p] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < TASKS_PER_PRODUCER; i++) {
+                            KeyedTask task = new KeyedTask(lanes, i % KEYS, producer, i);
+                            tasks.add(task);
+                            pool.add(task);
+                            if (i % 7 == 3) {
+                                // Exercises handing the key on from a task canceled in its lane.
+                                task.cancel();
+                            }
+                        }
+                    }
+                };
+                producers[p].start();
+            }
+            start.countDown();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            assertTrue("tasks left in the pool",
+                    TestSupport.awaitEmpty(pool, 30, TimeUnit.SECONDS));
+            assertEquals("tasks of a key ran together or out of order", 0, lanes.mViolations.get());
+            for (List<KeyedTask> tasks : added) {
+                for (KeyedTask task : tasks) {
+                    if (!task.isCanceled()) {
+                        assertEquals("runs of task " + task.mIndex, 1, task.mRuns.get());
+                        assertTrue("result of task " + task.mIndex, task.mDelivered);
+                    }
+                }
+            }
+
+            // Every key was released, so a new task of each one still runs.
+            for (int key = 0; key < KEYS; key++) {
+                pool.add(new KeyedTask(lanes, key, PRODUCERS, TASKS_PER_PRODUCER));
+            }
+            assertTrue("tasks left after the keys were released",
+                    TestSupport.awaitEmpty(pool, 10, TimeUnit.SECONDS));
+        } finally {
+            pool.stop();
+        }
+    }
+
+    /**
+     * What is running, and what ran last, per key.
+     */
+    private static final class Lanes {
+
+        final AtomicInteger[] mRunning = new AtomicInteger[KEYS];
+        // Guarded by the exclusive key itself, only one task of a key runs at a time.
+        final int[][] mLastIndex = new int[KEYS][PRODUCERS + 1];
+        final AtomicInteger mViolations = new AtomicInteger();
+
+        Lanes() {
+            for (int key = 0; key < KEYS; key++) {
+                mRunning[key] = new AtomicInteger();
+                for (int producer = 0; producer <= PRODUCERS; producer++) {
+                    mLastIndex[key][producer] = -1;
+                }
+            }
+        }
+    }
+
+    private static final class KeyedTask extends StubTask {
+
+        final Lanes mLanes;
+        final int mKey;
+        final int mProducer;
+        final int mIndex;
+        final AtomicInteger mRuns = new AtomicInteger();
+        volatile boolean mDelivered;
+
+        KeyedTask(Lanes lanes, int key, int producer, int index) {
+            super("key" + key, null);
+            mLanes = lanes;
+            mKey = key;
+            mProducer = producer;
+            mIndex = index;
+        }
+
+        @Override
+        protected Object onExecute() throws Exception {
+            mRuns.incrementAndGet();
+            AtomicInteger running = mLanes.mRunning[mKey];
+            if (running.incrementAndGet() != 1) {
+                mLanes.mViolations.incrementAndGet();
+            }
+            if (mLanes.mLastIndex[mKey][mProducer] >= mIndex) {
+                mLanes.mViolations.incrementAndGet();
+            }
+            mLanes.mLastIndex[mKey][mProducer] = mIndex;
+            Thread.yield();
+            running.decrementAndGet();
+            return null;
+        }
+
+        @Override
+        protected void deliverResult(Object result) {
+            mDelivered = true;
+        }
+    }
+}
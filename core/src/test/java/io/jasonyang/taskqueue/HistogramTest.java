@@ -0,0 +1,53 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Values recorded by many threads, and so into many stripes, all show up in a snapshot.
+ */
+public class HistogramTest {
+
+    private static final int THREADS = 8;
+    private static final int VALUES = 10000;
+
+    @Test(timeout = 30000)
+    public void snapshotAddsUpTheStripesOfAllThreads() throws Exception {
+        final Histogram histogram = new Histogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // 1 to VALUES microseconds, so every percentile is known.
+                    for (int i = 1; i <= VALUES; i++) {
+                        histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals("count", THREADS * VALUES, snapshot.getCount());
+        assertEquals("max", VALUES, snapshot.getMax(TimeUnit.MICROSECONDS));
+        assertEquals("mean", (VALUES + 1) / 2, snapshot.getMean(TimeUnit.MICROSECONDS));
+        // Within the 12.5% error of a bucket.
+        long median = snapshot.getValueAtPercentile(50, TimeUnit.MICROSECONDS);
+        assertEquals("median " + median, VALUES / 2, median, VALUES / 2 * 0.125);
+    }
+}
@@ -0,0 +1,129 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A LOW task added under a steady load of HIGH ones has to start within the aging bound, ahead
+ * of HIGH tasks which are still pending.
+ */
+public class PriorityAgingTest {
+
+    private static final long AGING_INTERVAL_MS = 50;
+    private static final int MAX_BOOST = 3;
+    // Time for the task running when LOW reaches IMMEDIATE to finish, and for the dispatcher.
+    private static final long SLACK_MS = 250;
+    private static final int BACKLOG = 50;
+
+    @Test(timeout = 30000)
+    public void lowTaskStartsWithinAgingBound() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setMaxConcurrency(1)
+                .setPriorityAging(AGING_INTERVAL_MS, TimeUnit.MILLISECONDS, MAX_BOOST)
+                .build();
+        long bound = TimeUnit.MILLISECONDS.toNanos(MAX_BOOST * AGING_INTERVAL_MS + SLACK_MS);
+        LowTask low = runUnderHighLoad(pool, 10 * bound);
+
+        assertTrue("LOW task didn't start", low.mStarted.getCount() == 0);
+        long waited = low.mStartTime - low.mAddTime;
+        assertTrue("LOW task waited " + TimeUnit.NANOSECONDS.toMillis(waited) + "ms",
+                waited <= bound);
+        assertTrue("LOW task didn't overtake pending HIGH tasks", low.mPendingAtStart > 0);
+    }
+
+    @Test(timeout = 30000)
+    public void lowTaskStarvesWithoutAging() throws Exception {
+        // Checks that the load is steady enough to starve LOW, or the test above proves nothing.
+        TaskPool pool = TestSupport.directPool()
+                .setMaxConcurrency(1)
+                .build();
+        long wait = TimeUnit.MILLISECONDS.toNanos(4 * (MAX_BOOST * AGING_INTERVAL_MS + SLACK_MS));
+        LowTask low = runUnderHighLoad(pool, wait);
+
+        assertFalse("LOW task started under HIGH load", low.mStarted.getCount() == 0);
+    }
+
+    /**
+     * Keeps the pool busy with HIGH tasks, adds a LOW one, and waits up to the timeout for it.
+     */
+    private LowTask runUnderHighLoad(final TaskPool pool, long timeoutNanos) throws Exception {
+        final LowTask low = new LowTask(pool);
+        final CountDownLatch loaded = new CountDownLatch(1);
+        Thread feeder = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    if (pool.size() < BACKLOG) {
+                        Task<?, ?> task = new SleepTask(2);
+                        task.setPriority(Task.Priority.HIGH);
+                        pool.add(task);
+                    } else {
+                        loaded.countDown();
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        pool.start();
+        feeder.start();
+        try {
+            loaded.await();
+            low.mAddTime = System.nanoTime();
+            pool.add(low);
+            low.mStarted.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            feeder.interrupt();
+            feeder.join();
+            pool.stop();
+        }
+        return low;
+    }
+
+    private static class SleepTask extends StubTask {
+
+        private final long mSleepMs;
+
+        SleepTask(long sleepMs) {
+            mSleepMs = sleepMs;
+        }
+
+        @Override
+        protected Object onExecute() throws Exception {
+            Thread.sleep(mSleepMs);
+            return null;
+        }
+    }
+
+    private static final class LowTask extends SleepTask {
+
+        private final TaskPool mPool;
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private volatile long mAddTime;
+        private volatile long mStartTime;
+        private volatile int mPendingAtStart;
+
+        LowTask(TaskPool pool) {
+            super(0);
+            mPool = pool;
+            setPriority(Priority.LOW);
+        }
+
+        @Override
+        protected Object onExecute() throws Exception {
+            mStartTime = System.nanoTime();
+            // Everything else in the pool is HIGH and waiting, only this one runs.
+            mPendingAtStart = mPool.size() - 1;
+            mStarted.countDown();
+            return null;
+        }
+    }
+}
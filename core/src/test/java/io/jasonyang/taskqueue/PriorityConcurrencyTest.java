@@ -0,0 +1,97 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tasks over the limit of their priority must not hold the workers the other priorities need, and
+ * the limit must hold while they take turns.
+ */
+public class PriorityConcurrencyTest {
+
+    private static final int LOW_TASKS = 20;
+
+    @Test(timeout = 30000)
+    public void highTaskRunsWhileLowTasksWaitForTheirLimit() throws Exception {
+        TaskPool pool = TestSupport.directPool()
+                .setMaxConcurrency(2)
+                .setPriorityConcurrency(Task.Priority.LOW, 1)
+                .build();
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<GatedTask> lows = new ArrayList<GatedTask>();
+        pool.start();
+        try {
+            for (int i = 0; i < LOW_TASKS; i++) {
+                GatedTask low = new GatedTask(gate, running, maxRunning);
+                low.setPriority(Task.Priority.LOW);
+                lows.add(low);
+                pool.add(low);
+            }
+            assertTrue("first LOW task didn't start",
+                    lows.get(0).mStarted.await(5, TimeUnit.SECONDS));
+            // Wait until the dispatcher went through the LOW tasks waiting for the limit.
+            Thread.sleep(100);
+            // Canceling a LOW task waiting for the limit takes it out of the pool right away.
+            lows.get(LOW_TASKS - 1).cancel();
+
+            GatedTask high = new GatedTask(new CountDownLatch(0), new AtomicInteger(),
+                    new AtomicInteger());
+            high.setPriority(Task.Priority.HIGH);
+            pool.add(high);
+            assertTrue("HIGH task starved behind LOW tasks",
+                    high.mStarted.await(5, TimeUnit.SECONDS));
+
+            gate.countDown();
+            assertTrue("tasks left in the pool",
+                    TestSupport.awaitEmpty(pool, 10, TimeUnit.SECONDS));
+            assertEquals("LOW tasks running at once", 1, maxRunning.get());
+            for (int i = 0; i < LOW_TASKS - 1; i++) {
+                assertEquals("runs of LOW task " + i, 1, lows.get(i).mRuns.get());
+            }
+            assertEquals("runs of the canceled LOW task", 0, lows.get(LOW_TASKS - 1).mRuns.get());
+        } finally {
+            pool.stop();
+        }
+    }
+
+    private static final class GatedTask extends StubTask {
+
+        private final CountDownLatch mGate;
+        private final AtomicInteger mRunning;
+        private final AtomicInteger mMaxRunning;
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final AtomicInteger mRuns = new AtomicInteger();
+
+        GatedTask(CountDownLatch gate, AtomicInteger running, AtomicInteger maxRunning) {
+            mGate = gate;
+            mRunning = running;
+            mMaxRunning = maxRunning;
+        }
+
+        @Override
+        protected Object onExecute() throws Exception {
+            mRuns.incrementAndGet();
+            int running = mRunning.incrementAndGet();
+            for (int max; (max = mMaxRunning.get()) < running; ) {
+                mMaxRunning.compareAndSet(max, running);
+            }
+            mStarted.countDown();
+            try {
+                mGate.await();
+            } finally {
+                mRunning.decrementAndGet();
+            }
+            return null;
+        }
+    }
+}
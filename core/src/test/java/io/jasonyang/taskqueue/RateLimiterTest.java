@@ -0,0 +1,47 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A task only takes tokens once every bucket it falls into has one for it.
+ */
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void taskWaitingForOneBucketTakesNoTokenFromTheOthers() {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 2),
+                new RateLimiter.Limit[Task.Priority.values().length], null,
+                Collections.singletonMap("key", new RateLimiter.Limit(1, 1)));
+        long now = System.nanoTime();
+        assertEquals("first task of the key", 0, limiter.acquire(new StubTask("key", null), now));
+
+        long wait = limiter.acquire(new StubTask("key", null), now);
+        assertTrue("second task of the key didn't wait, " + wait, wait > 0 && wait <= SECOND);
+        // The global bucket still has the token the waiting task didn't take.
+        assertEquals("task without a key", 0, limiter.acquire(new StubTask(), now));
+    }
+
+    @Test
+    public void parkedTaskAsksAgainForTokensTakenMeanwhile() {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 1),
+                new RateLimiter.Limit[Task.Priority.values().length], null,
+                Collections.<String, RateLimiter.Limit>emptyMap());
+        long now = System.nanoTime();
+        assertEquals("first task", 0, limiter.acquire(new StubTask(), now));
+        long wait = limiter.acquire(new StubTask(), now);
+        assertTrue("second task didn't wait", wait > 0);
+
+        // Another task comes first once the token is due, the parked one has to wait again.
+        assertEquals("task at the due time", 0, limiter.acquire(new StubTask(), now + wait));
+        assertEquals("parked task after its wait", SECOND,
+                limiter.acquire(new StubTask(), now + wait));
+    }
+}
@@ -0,0 +1,54 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A task which does no work, for tests and benchmarks of the pool itself. Override
+ * {@link #onExecute()} to give it some.
+ */
+public class StubTask extends Task<Object, Object> {
+
+    private final String mExclusiveKey;
+    private final CountDownLatch mDelivered;
+    private Object mData;
+
+    public StubTask() {
+        this(null, null);
+    }
+
+    /**
+     * @param delivered counted down when the result is delivered, or {@code null}
+     */
+    public StubTask(String exclusiveKey, CountDownLatch delivered) {
+        super(null);
+        mExclusiveKey = exclusiveKey;
+        mDelivered = delivered;
+    }
+
+    @Override
+    public Object getData() {
+        return mData;
+    }
+
+    @Override
+    public void setData(Object data) {
+        mData = data;
+    }
+
+    @Override
+    protected Object onExecute() throws Exception {
+        return mData;
+    }
+
+    @Override
+    public String getExclusiveKey() {
+        return mExclusiveKey;
+    }
+
+    @Override
+    protected void deliverResult(Object result) {
+        if (mDelivered != null) {
+            mDelivered.countDown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unfinished tasks are replayed in the order they were added, also after the journal was
+ * compacted on its own thread while they were, and the finished ones are compacted away.
+ */
+public class TaskJournalTest {
+
+    private static final int SEGMENT_SIZE = 256;
+    private static final int TASKS = 1000;
+    // Every tenth task is left unfinished.
+    private static final int UNFINISHED_EVERY = 10;
+
+    @Test(timeout = 30000)
+    public void replaysUnfinishedTasksWhenAddWaitsForTheDisk() throws Exception {
+        replaysUnfinishedTasks(0);
+    }
+
+    @Test(timeout = 30000)
+    public void replaysUnfinishedTasksWithSyncDelay() throws Exception {
+        replaysUnfinishedTasks(5);
+    }
+
+    private void replaysUnfinishedTasks(long syncDelayMillis) throws Exception {
+        File directory = Files.createTempDirectory("TaskJournalTest").toFile();
+        try {
+            TaskJournal journal = new TaskJournal(directory, new IntCodec(), SEGMENT_SIZE,
+                    syncDelayMillis, TimeUnit.MILLISECONDS);
+            assertEquals("tasks in a new journal", 0, journal.open().size());
+            for (int i = 0; i < TASKS; i++) {
+                StubTask task = new StubTask();
+                task.setData(i);
+                journal.recordAdd(task);
+                if (i % UNFINISHED_EVERY != 0) {
+                    journal.recordFinish(task);
+                }
+            }
+            journal.close();
+
+            TaskJournal reopened = new TaskJournal(directory, new IntCodec(), SEGMENT_SIZE);
+            List<Task<?, ?>> tasks = reopened.open();
+            assertEquals("replayed tasks", TASKS / UNFINISHED_EVERY, tasks.size());
+            for (int i = 0; i < tasks.size(); i++) {
+                assertEquals("replayed task " + i, i * UNFINISHED_EVERY, tasks.get(i).getData());
+            }
+            // Closing waits for the compaction which opening started, if the writes left one due.
+            reopened.close();
+            String[] segments = directory.list();
+            assertTrue("segments left after compaction: " + segments.length,
+                    segments.length < 20);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private static final class IntCodec implements TaskCodec {
+
+        @Override
+        public byte[] encode(Task<?, ?> task) {
+            return ByteBuffer.allocate(4).putInt((Integer) task.getData()).array();
+        }
+
+        @Override
+        public Task<?, ?> decode(byte[] data) throws IOException {
+            StubTask task = new StubTask();
+            task.setData(ByteBuffer.wrap(data).getInt());
+            return task;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.jasonyang.taskqueue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A run whose factory makes no task is skipped, and the schedule goes on with the next one.
+ */
+public class TaskScheduleTest {
+
+    private static final int RUNS = 5;
+
+    @Test(timeout = 30000)
+    public void skipsRunsWhoseFactoryReturnsNull() throws Exception {
+        runWithFailingFactory(false);
+    }
+
+    @Test(timeout = 30000)
+    public void skipsRunsWhoseFactoryThrows() throws Exception {
+        runWithFailingFactory(true);
+    }
+
+    /**
+     * Every other run of the factory fails, the others have to go on being added and delivered.
+     */
+    private void runWithFailingFactory(final boolean failByThrowing) throws Exception {
+        final AtomicReference<Throwable> uncaught = new AtomicReference<Throwable>();
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.compareAndSet(null, e);
+            }
+        });
+        final CountDownLatch delivered = new CountDownLatch(RUNS);
+        final AtomicInteger calls = new AtomicInteger();
+        TaskPool pool = TestSupport.directPool().build();
+        pool.start();
+        try {
+            TaskSchedule schedule = pool.scheduleWithFixedDelay(new TaskPool.TaskFactory() {
+                @Override
+                public Task<?, ?> create() {
+                    if (calls.incrementAndGet() % 2 == 1) {
+                        return new StubTask(null, delivered);
+                    }
+                    if (failByThrowing) {
+                        throw new IllegalStateException("No task this time");
+                    }
+                    return null;
+                }
+            }, 0, 5, TimeUnit.MILLISECONDS);
+
+            assertTrue("runs stopped after the factory failed, " + calls.get() + " calls",
+                    delivered.await(10, TimeUnit.SECONDS));
+            assertFalse("schedule was canceled", schedule.isCanceled());
+            schedule.cancel();
+            assertNull("factory failure escaped", uncaught.get());
+        } finally {
+            pool.stop();
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.jasonyang.taskqueue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Setups shared by the tests and the benchmarks.
+ */
+public final class TestSupport {
+
+    /**
+     * Runs deliveries on the thread which posts them.
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private TestSupport() {
+    }
+
+    /**
+     * A builder of a pool which delivers results on the worker.
+     */
+    public static TaskPool.Builder directPool() {
+        return new TaskPool.Builder(new ExecutorDelivery(DIRECT));
+    }
+
+    /**
+     * Waits up to the timeout for the pool to have no tasks left, returns whether it has none.
+     */
+    public static boolean awaitEmpty(TaskPool pool, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pool.size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return pool.size() == 0;
+    }
+}
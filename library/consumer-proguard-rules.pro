@@ -0,0 +1,7 @@
+# Applied to apps which depend on the library when they are minified.
+
+# Platform.get() loads the Android platform by name, keep it so results are still delivered on
+# the main thread.
+-keep class io.jasonyang.taskqueue.AndroidPlatform {
+    <init>();
+}
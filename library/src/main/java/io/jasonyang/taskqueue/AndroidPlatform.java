@@ -0,0 +1,26 @@
+package io.jasonyang.taskqueue;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Background thread priority, and delivery on the main thread. Picked up by {@link Platform#get()}.
+ */
+public class AndroidPlatform extends Platform {
+
+    private final Executor mMainThreadExecutor = new HandlerExecutor(
+            new Handler(Looper.getMainLooper()));
+
+    @Override
+    public void setBackgroundThreadPriority() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    @Override
+    public Executor defaultCallbackExecutor() {
+        return mMainThreadExecutor;
+    }
+}
@@ -0,0 +1,22 @@
+package io.jasonyang.taskqueue;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An Executor that just wraps the handler, to deliver results on its thread.
+ */
+public class HandlerExecutor implements Executor {
+
+    private final Handler mHandler;
+
+    public HandlerExecutor(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mHandler.post(command);
+    }
+}